@@ -7,6 +7,25 @@ import java.util.function.*;
  * It contains methods for evaluating basic expressions whose tokens have
  * already been parsed into operators and operands, along with methods for
  * viewing the operators currently in use.
+ * <p>
+ * Subclasses only need to implement the {@code parse} method for their
+ * notation, which reports the operands and operators of an expression to an
+ * {@code ExpressionSink} in postfix order. The same parser is then used both to
+ * evaluate expressions directly and to compile them into {@code
+ * CompiledExpression} objects that can be evaluated repeatedly without being
+ * parsed again.
+ * <p>
+ * The operator mappings and angle units of a calculator are held in an
+ * immutable {@code CalculatorSettings} object, which the setters replace as a
+ * whole, and the last answer and scratch space of each caller are held in an
+ * {@code EvaluationContext}. The methods taking a context can therefore be
+ * called by many threads at once without locking, each with its own context.
+ * The methods without one use a context owned by the calculator and are not
+ * safe for concurrent use.
+ * <p>
+ * A {@code CalculatorMetrics} object can be set on a calculator to record
+ * where its evaluations spend their time and why invalid expressions fail.
+ * Calculators without metrics pay only for checking that none are set.
  *
  * @author Kevin Zhu
  */
@@ -53,38 +72,532 @@ public abstract class AbstractCalculator implements Calculator<String>
     /** The default precision of this calculator. */
     public static final int DEFAULT_PRECISION = 2;
     
-    /** Internal constant for allowing different angle units. */
-    private static final Set<String> TRIG_OPS =
-        Set.of("sin", "cos", "tan", "sec", "csc", "cot");
-    
-    /** Internal constant for allowing different angle units. */
-    private static final Set<String> INV_TRIG_OPS =
-        Set.of("asin", "acos", "atan", "asec", "acsc", "acot");
-    
-    /** The map from unary operators to their associated functions. */
-    private Map<String, DoubleUnaryOperator> unaryOps;
-    
-    /** The map from binary operators to their associated functions. */
-    private Map<String, DoubleBinaryOperator> binaryOps;
+    /** The bindings used when evaluating without variables. */
+    private static final double[] NO_BINDINGS = new double[0];
     
     /** The available angle units for this calculator. */
     public enum AngleUnits { RADIANS, DEGREES }
     
-    /** The angle units this calculator uses. */
-    private AngleUnits angleUnits;
+    /** The optimizations applied when compiling expressions. */
+    public enum Optimization
+    {
+        /** Expressions are compiled exactly as written. */
+        NONE,
+        
+        /**
+         * Constant subexpressions are evaluated once at compile time, and
+         * operations that leave their operand unchanged are removed, only
+         * where the results are the same as without optimizing, bit for bit.
+         * Powers with the constant exponents 0, 0.5 and 2 are computed
+         * without calling {@code Math.pow}.
+         */
+        EXACT,
+        
+        /**
+         * Everything {@code EXACT} does, and also powers with other small
+         * whole constant exponents computed by repeated multiplication, which
+         * is faster than {@code Math.pow} but may differ from it in the last
+         * few bits.
+         */
+        RELAXED
+    }
+    
+    /** The operator mappings and angle units of this calculator. */
+    private volatile CalculatorSettings settings;
     
     /** The floating point precision of this calculator. */
-    private int precision;
+    private volatile int precision;
+    
+    /** The context used by the methods that do not take one. */
+    private final EvaluationContext context;
+    
+    /** The cache of expressions compiled by this calculator. */
+    private final ExpressionCache cache;
+    
+    /** The metrics recorded by this calculator, or {@code null}. */
+    private volatile CalculatorMetrics metrics;
     
     /** Sole constructor for use by subclasses, if necessary. */
     protected AbstractCalculator()
     {
-        unaryOps = DEFAULT_UNARY_OPS;
-        binaryOps = DEFAULT_BINARY_OPS;
-        angleUnits = AngleUnits.RADIANS;
+        settings = new CalculatorSettings(DEFAULT_UNARY_OPS, DEFAULT_BINARY_OPS,
+                                          Map.of(), Map.of(),
+                                          AngleUnits.RADIANS,
+                                          Optimization.EXACT);
         precision = DEFAULT_PRECISION;
+        context = new EvaluationContext();
+        cache = new ExpressionCache(ExpressionCache.DEFAULT_CAPACITY);
+    }
+    
+    /**
+     * {@inheritDoc}
+     * <p>
+     * This implementation evaluates the expression in the context owned by
+     * this calculator, as with {@code evaluate(expression, context)}, so the
+     * result is stored as the last answer of this calculator.
+     */
+    @Override
+    public double evaluate(String expression)
+    {
+        return evaluate(expression, context);
+    }
+    
+    /**
+     * Evaluates and returns the value of the given input expression in the
+     * specified context, or {@code Double.NaN} if the expression is invalid or
+     * produces a not-a-number value. The expression reads the last answer of
+     * the context as {@code "ans"}, and its result is stored as the new last
+     * answer of the context.
+     * <p>
+     * This implementation evaluates the compiled form of the expression from
+     * the cache of this calculator, compiling and caching it first if needed.
+     * If the cache is disabled, or the expression has too many literals or
+     * operators to compile, the expression is instead parsed with the {@code
+     * parse} method, applying each operator as soon as it is parsed.
+     * While metrics are set, the expression is always compiled, so that
+     * parsing and evaluating can be measured apart.
+     *
+     * @param  expression the input expression to evaluate
+     * @param  context    the context to evaluate the expression in
+     * @return            the value of the specified expression, or {@code
+     *                    Double.NaN} if the expression is invalid or produces
+     *                    a not-a-number value
+     */
+    public double evaluate(String expression, EvaluationContext context)
+    {
+        CalculatorSettings settings = this.settings;
+        CalculatorMetrics metrics = this.metrics;
+        if (metrics != null) {
+            return evaluate(expression, settings, context, metrics);
+        } else if (cache.getCapacity() > 0) {
+            CompiledExpression compiled = compile(expression, settings,
+                                                  context);
+            if (!isTooLarge(compiled)) {
+                return evaluate(compiled, NO_BINDINGS, context);
+            }
+        }
+        return evaluateDirectly(expression, settings, context);
+    }
+    
+    /**
+     * Evaluates and returns the value of the given input expression in the
+     * specified context without compiling it, applying each operator as soon
+     * as it is parsed, and stores the result as the new last answer of the
+     * context.
+     *
+     * @param  expression the input expression to evaluate
+     * @param  settings   the settings to parse the expression under
+     * @param  context    the context to evaluate the expression in
+     * @return            the value of the specified expression, or {@code
+     *                    Double.NaN} if the expression is invalid or produces
+     *                    a not-a-number value
+     */
+    private double evaluateDirectly(String expression,
+                                    CalculatorSettings settings,
+                                    EvaluationContext context)
+    {
+        ExpressionEvaluator evaluator = context.evaluator();
+        evaluator.reset(context.getAnswer());
+        double result = Double.NaN;
+        if (parse(expression, settings, context, evaluator)) {
+            result = evaluator.result();
+        } else {
+            context.takeError(); // only kept for compiled expressions
+        }
+        context.setAnswer(result);
+        return result;
+    }
+    
+    /**
+     * Returns {@code true} if the specified compiled expression is invalid
+     * only because it is too large to compile, so that its source text is
+     * evaluated without compiling it instead; {@code false} otherwise.
+     *
+     * @param  compiled the compiled expression to check
+     * @return          {@code true} if the expression is too large to
+     *                  compile; {@code false} otherwise
+     */
+    private static boolean isTooLarge(CompiledExpression compiled)
+    {
+        return compiled.errorCause() == CalculatorMetrics.ErrorCause.TOO_LARGE;
+    }
+    
+    /**
+     * Evaluates and returns the value of the given input expression in the
+     * specified context just as {@code evaluate(expression, context)} does,
+     * recording its latency, the time spent in each phase and any error in
+     * the specified metrics.
+     *
+     * @param  expression the input expression to evaluate
+     * @param  settings   the settings to compile the expression under
+     * @param  context    the context to evaluate the expression in
+     * @param  metrics    the metrics to record in
+     * @return            the value of the specified expression, or {@code
+     *                    Double.NaN} if the expression is invalid or produces
+     *                    a not-a-number value
+     */
+    private double evaluate(String expression, CalculatorSettings settings,
+                            EvaluationContext context,
+                            CalculatorMetrics metrics)
+    {
+        long start = System.nanoTime();
+        CompiledExpression compiled = cache.get(expression, settings);
+        if (compiled == null) {
+            ExpressionLexer lexer = context.lexer();
+            lexer.setBuffered(true);
+            long parseStart = System.nanoTime();
+            try {
+                compiled = compile(expression, settings, context,
+                        new ExpressionCompiler(settings.getOptimization()));
+            } finally {
+                lexer.setBuffered(false);
+            }
+            long lexNanos = lexer.lexNanos();
+            metrics.recordPhase(CalculatorMetrics.Phase.LEX, lexNanos);
+            metrics.recordPhase(CalculatorMetrics.Phase.PARSE,
+                                System.nanoTime() - parseStart - lexNanos);
+            compiled = cache.put(expression, settings, compiled);
+        }
+        double result;
+        if (isTooLarge(compiled)) {
+            long evalStart = System.nanoTime();
+            result = evaluateDirectly(expression, settings, context);
+            metrics.recordPhase(CalculatorMetrics.Phase.EVAL,
+                                System.nanoTime() - evalStart);
+        } else {
+            result = evaluate(compiled, NO_BINDINGS, context, metrics);
+        }
+        metrics.recordLatency(System.nanoTime() - start);
+        return result;
+    }
+    
+    /**
+     * Evaluates and returns the value of the specified compiled expression,
+     * or {@code Double.NaN} if it is invalid or produces a not-a-number value.
+     * The expression reads the last answer of this calculator as {@code
+     * "ans"}, and its result is stored as the new last answer, just as if it
+     * were evaluated from its source text.
+     *
+     * @param  expression the compiled expression to evaluate
+     * @return            the value of the specified expression, or {@code
+     *                    Double.NaN} if it is invalid or produces a
+     *                    not-a-number value
+     */
+    public double evaluate(CompiledExpression expression)
+    {
+        return evaluate(expression, NO_BINDINGS, context);
+    }
+    
+    /**
+     * Evaluates and returns the value of the specified compiled expression
+     * with its variables bound to the specified values, or {@code Double.NaN}
+     * if it is invalid or produces a not-a-number value. The value of each
+     * variable is read from the index of its slot in {@code bindings}, and the
+     * last answer is read and stored just as in {@code
+     * evaluate(CompiledExpression)}.
+     *
+     * @param  expression               the compiled expression to evaluate
+     * @param  bindings                 the values of the variables, by slot
+     * @return                          the value of the specified expression,
+     *                                  or {@code Double.NaN} if it is invalid
+     *                                  or produces a not-a-number value
+     * @throws IllegalArgumentException if there are fewer bindings than
+     *                                  variables
+     */
+    public double evaluate(CompiledExpression expression, double[] bindings)
+    {
+        return evaluate(expression, bindings, context);
+    }
+    
+    /**
+     * Evaluates and returns the value of the specified compiled expression in
+     * the specified context, with its variables bound to the specified
+     * values, or {@code Double.NaN} if it is invalid or produces a
+     * not-a-number value. The expression reads the last answer of the context
+     * as {@code "ans"}, and its result is stored as the new last answer of the
+     * context.
+     *
+     * @param  expression               the compiled expression to evaluate
+     * @param  bindings                 the values of the variables, by slot
+     * @param  context                  the context to evaluate the expression
+     *                                  in
+     * @return                          the value of the specified expression,
+     *                                  or {@code Double.NaN} if it is invalid
+     *                                  or produces a not-a-number value
+     * @throws IllegalArgumentException if there are fewer bindings than
+     *                                  variables
+     */
+    public double evaluate(CompiledExpression expression, double[] bindings,
+                           EvaluationContext context)
+    {
+        CalculatorMetrics metrics = this.metrics;
+        if (metrics != null) {
+            long start = System.nanoTime();
+            double result = evaluate(expression, bindings, context, metrics);
+            metrics.recordLatency(System.nanoTime() - start);
+            return result;
+        }
+        double result = expression.evaluate(context.getAnswer(), bindings,
+                context.stack(expression.maxStack()));
+        context.setAnswer(result);
+        return result;
+    }
+    
+    /**
+     * Evaluates and returns the value of the specified compiled expression in
+     * the specified context just as {@code evaluate(expression, bindings,
+     * context)} does, recording the time spent evaluating it and in each
+     * operator, or the cause of its error, in the specified metrics.
+     *
+     * @param  expression               the compiled expression to evaluate
+     * @param  bindings                 the values of the variables, by slot
+     * @param  context                  the context to evaluate the expression
+     *                                  in
+     * @param  metrics                  the metrics to record in
+     * @return                          the value of the specified expression,
+     *                                  or {@code Double.NaN} if it is invalid
+     *                                  or produces a not-a-number value
+     * @throws IllegalArgumentException if there are fewer bindings than
+     *                                  variables
+     */
+    private double evaluate(CompiledExpression expression, double[] bindings,
+                            EvaluationContext context,
+                            CalculatorMetrics metrics)
+    {
+        double result;
+        if (expression.isValid()) {
+            long start = System.nanoTime();
+            result = expression.evaluate(context.getAnswer(), bindings,
+                    context.stack(expression.maxStack()), metrics,
+                    context.timings(2 * expression.operatorCount()));
+            metrics.recordPhase(CalculatorMetrics.Phase.EVAL,
+                                System.nanoTime() - start);
+        } else {
+            result = Double.NaN;
+            metrics.recordError(expression.errorCause());
+        }
+        context.setAnswer(result);
+        return result;
+    }
+    
+    /**
+     * Returns the compiled form of the specified expression. Operators are
+     * resolved against the current operator mappings and angle units, and
+     * simplified according to the current optimizations, so later changes to
+     * them do not affect the returned expression. If the
+     * expression is invalid, or has too many literals or operators to
+     * compile, the returned expression always evaluates to {@code
+     * Double.NaN}.
+     * <p>
+     * The expression may refer to the specified variables, each of which is
+     * resolved to its index in {@code variables}. Values for the variables are
+     * then supplied in an array of bindings with the same order each time the
+     * expression is evaluated. Variable names must be single tokens that are
+     * neither numbers, {@code "ans"} nor operators of this calculator, even
+     * when tokens are split at operators as in infix notation, so names such
+     * as {@code "x+y"} are rejected in every notation.
+     * <p>
+     * Compiled expressions without variables are kept in the cache of this
+     * calculator, so compiling the same source text again usually returns the
+     * same object. This method is safe to call from many threads at once.
+     *
+     * @param  expression               the expression to compile
+     * @param  variables                the names of the variables the
+     *                                  expression may refer to, by slot
+     * @return                          the compiled form of the specified
+     *                                  expression
+     * @throws IllegalArgumentException if a variable name is not a valid
+     *                                  token or is declared more than once
+     */
+    public CompiledExpression compile(String expression, String... variables)
+    {
+        CalculatorSettings settings = this.settings;
+        if (variables.length > 0) {
+            checkVariables(variables, settings);
+            return compile(expression, settings, new EvaluationContext(),
+                           new ExpressionCompiler(settings.getOptimization(),
+                                                  variables));
+        }
+        CompiledExpression compiled = cache.get(expression, settings);
+        if (compiled == null) {
+            compiled = compile(expression, settings, new EvaluationContext(),
+                    new ExpressionCompiler(settings.getOptimization()));
+            compiled = cache.put(expression, settings, compiled);
+        }
+        return compiled;
+    }
+    
+    /**
+     * Returns the compiled form of the specified expression from the cache of
+     * this calculator, compiling it with the scratch space of the specified
+     * context and caching it first if needed.
+     *
+     * @param  expression the expression to compile
+     * @param  settings   the settings to compile the expression under
+     * @param  context    the context whose scratch space to use
+     * @return            the compiled form of the specified expression
+     */
+    private CompiledExpression compile(String expression,
+                                       CalculatorSettings settings,
+                                       EvaluationContext context)
+    {
+        CompiledExpression compiled = cache.get(expression, settings);
+        if (compiled == null) {
+            compiled = compile(expression, settings, context,
+                    new ExpressionCompiler(settings.getOptimization()));
+            compiled = cache.put(expression, settings, compiled);
+        }
+        return compiled;
+    }
+    
+    /**
+     * Parses the specified expression into the specified compiler and returns
+     * its compiled form.
+     *
+     * @param  expression the expression to compile
+     * @param  settings   the settings to compile the expression under
+     * @param  context    the context whose scratch space to use
+     * @param  compiler   the compiler to parse the expression into
+     * @return            the compiled form of the specified expression
+     */
+    private CompiledExpression compile(String expression,
+                                       CalculatorSettings settings,
+                                       EvaluationContext context,
+                                       ExpressionCompiler compiler)
+    {
+        if (parse(expression, settings, context, compiler)) {
+            return compiler.build(expression);
+        }
+        CalculatorMetrics.ErrorCause cause = context.takeError();
+        return CompiledExpression.invalid(cause != null ? cause :
+                CalculatorMetrics.ErrorCause.BAD_TOKEN);
+    }
+    
+    /**
+     * Checks that the specified variable names are distinct tokens that are
+     * neither numbers, {@code "ans"} nor operators under the specified
+     * settings. Each name must be a single token both when tokens are
+     * separated by whitespace only and when they are split at operators, so
+     * that it is valid in every notation.
+     *
+     * @param  variables                the variable names to check
+     * @param  settings                 the settings defining the operators
+     * @throws IllegalArgumentException if a variable name is not valid
+     */
+    private static void checkVariables(String[] variables,
+                                       CalculatorSettings settings)
+    {
+        ExpressionLexer tokens = new ExpressionLexer();
+        Set<String> seen = new HashSet<>();
+        for (String variable : variables) {
+            tokens.reset(variable, true);
+            boolean valid = isName(tokens, settings);
+            tokens.reset(variable, settings.symbols());
+            if (!valid || !isName(tokens, settings) || !seen.add(variable)) {
+                throw new IllegalArgumentException("invalid variable: " +
+                                                   variable);
+            }
+        }
+    }
+    
+    /**
+     * Returns {@code true} if the specified lexer reads a single word that is
+     * not an operator under the specified settings; {@code false} otherwise.
+     *
+     * @param  tokens   the lexer reading the variable name
+     * @param  settings the settings defining the operators
+     * @return          {@code true} if the lexer reads a single word that is
+     *                  not an operator; {@code false} otherwise
+     */
+    private static boolean isName(ExpressionLexer tokens,
+                                  CalculatorSettings settings)
+    {
+        return tokens.next() == ExpressionLexer.WORD &&
+               settings.operator(tokens) == CalculatorSettings.NO_OPERATOR &&
+               tokens.next() == ExpressionLexer.END;
+    }
+    
+    /**
+     * Returns the cache of expressions compiled by this calculator. The cache
+     * is cleared whenever the operator mappings or angle units of this
+     * calculator change.
+     *
+     * @return the cache of expressions compiled by this calculator
+     */
+    public ExpressionCache getCache()
+    {
+        return cache;
     }
     
+    /**
+     * Returns the metrics recorded by this calculator, or {@code null} if it
+     * is not recording any.
+     *
+     * @return the metrics recorded by this calculator, or {@code null}
+     */
+    public CalculatorMetrics getMetrics()
+    {
+        return metrics;
+    }
+    
+    /**
+     * Sets the metrics recorded by this calculator. The same metrics may be
+     * set on several calculators to record them together.
+     *
+     * @param metrics the metrics to record, or {@code null} to stop recording
+     */
+    public void setMetrics(CalculatorMetrics metrics)
+    {
+        this.metrics = metrics;
+    }
+    
+    /**
+     * Returns the last answer of this calculator, which is the last answer of
+     * the context used by the methods that do not take one.
+     *
+     * @return the last answer of this calculator
+     */
+    public double getLastAnswer()
+    {
+        return context.getAnswer();
+    }
+    
+    /**
+     * Returns the current settings of this calculator. The returned object is
+     * immutable; later changes to this calculator replace it rather than
+     * modifying it.
+     *
+     * @return the current settings of this calculator
+     */
+    public CalculatorSettings getSettings()
+    {
+        return settings;
+    }
+    
+    /**
+     * Parses the specified expression, reporting its operands and operators to
+     * the specified sink in postfix order. Returns {@code false} as soon as the
+     * expression is found to be invalid, in which case the sink may have
+     * received only part of the expression.
+     * <p>
+     * Implementations must look up operators only through the specified
+     * settings and keep any scratch state in the specified context, so that
+     * expressions can be parsed by many threads at once. When an expression
+     * is invalid, they record the cause through the {@code fail} method of
+     * the context; a failure without a recorded cause counts as a bad token.
+     *
+     * @param  expression the expression to parse
+     * @param  settings   the settings to look up operators in
+     * @param  context    the context whose scratch space to use
+     * @param  sink       the sink to report operands and operators to
+     * @return            {@code true} if the expression was valid and the sink
+     *                    holds exactly one operand; {@code false} otherwise
+     */
+    protected abstract boolean parse(CharSequence expression,
+                                     CalculatorSettings settings,
+                                     EvaluationContext context,
+                                     ExpressionSink sink);
+    
     /**
      * Returns an unmodifiable view of the current map from unary operators to
      * their associated functions.
@@ -94,7 +607,7 @@ public abstract class AbstractCalculator implements Calculator<String>
      */
     public Map<String, DoubleUnaryOperator> getUnaryOps()
     {
-        return unaryOps;
+        return settings.getUnaryOps();
     }
     
     /**
@@ -105,9 +618,11 @@ public abstract class AbstractCalculator implements Calculator<String>
      * @throws UnsupportedOperationException if this calculator does not support
      *                                       this operation
      */
-    public void setUnaryOps(Map<String, DoubleUnaryOperator> unaryOps)
+    public synchronized void setUnaryOps(
+            Map<String, DoubleUnaryOperator> unaryOps)
     {
-        this.unaryOps = Collections.unmodifiableMap(new HashMap<>(unaryOps));
+        settings = settings.withUnaryOps(unaryOps);
+        cache.clear();
     }
     
     /**
@@ -119,7 +634,7 @@ public abstract class AbstractCalculator implements Calculator<String>
      */
     public Map<String, DoubleBinaryOperator> getBinaryOps()
     {
-        return binaryOps;
+        return settings.getBinaryOps();
     }
     
     /**
@@ -130,9 +645,25 @@ public abstract class AbstractCalculator implements Calculator<String>
      * @throws UnsupportedOperationException if this calculator does not support
      *                                       this operation
      */
-    public void setBinaryOps(Map<String, DoubleBinaryOperator> binaryOps)
+    public synchronized void setBinaryOps(
+            Map<String, DoubleBinaryOperator> binaryOps)
+    {
+        settings = settings.withBinaryOps(binaryOps);
+        cache.clear();
+    }
+    
+    /**
+     * Replaces the current settings of this calculator with the settings the
+     * specified function derives from them, for subclasses that have settings
+     * of their own.
+     *
+     * @param update the function deriving the new settings from the current
+     *               settings
+     */
+    synchronized void updateSettings(UnaryOperator<CalculatorSettings> update)
     {
-        this.binaryOps = Collections.unmodifiableMap(new HashMap<>(binaryOps));
+        settings = update.apply(settings);
+        cache.clear();
     }
     
     /**
@@ -142,7 +673,7 @@ public abstract class AbstractCalculator implements Calculator<String>
      */
     public AngleUnits getAngleUnits()
     {
-        return angleUnits;
+        return settings.getAngleUnits();
     }
     
     /**
@@ -150,9 +681,50 @@ public abstract class AbstractCalculator implements Calculator<String>
      *
      * @param angleUnits the angle units to set this calculator to
      */
-    public void setAngleUnits(AngleUnits angleUnits)
+    public synchronized void setAngleUnits(AngleUnits angleUnits)
+    {
+        if (settings.getAngleUnits() != angleUnits) {
+            settings = settings.withAngleUnits(angleUnits);
+            cache.clear(); // compiled expressions depend on the angle units
+        }
+    }
+    
+    /**
+     * Returns the optimizations this calculator applies when compiling
+     * expressions.
+     *
+     * @return the optimizations this calculator applies when compiling
+     *         expressions
+     */
+    public Optimization getOptimization()
+    {
+        return settings.getOptimization();
+    }
+    
+    /**
+     * Sets the optimizations this calculator applies when compiling
+     * expressions. The default, {@code Optimization.EXACT}, never changes the
+     * value of an expression; {@code Optimization.RELAXED} may change it in
+     * the last few bits.
+     *
+     * @param optimization the optimizations to apply
+     */
+    public synchronized void setOptimization(Optimization optimization)
+    {
+        if (settings.getOptimization() != optimization) {
+            settings = settings.withOptimization(optimization);
+            cache.clear(); // compiled expressions depend on the optimizations
+        }
+    }
+    
+    /**
+     * Returns the context used by the methods that do not take one.
+     *
+     * @return the context used by the methods that do not take one
+     */
+    EvaluationContext context()
     {
-        this.angleUnits = angleUnits;
+        return context;
     }
     
     /**
@@ -179,10 +751,31 @@ public abstract class AbstractCalculator implements Calculator<String>
     @Override
     public String settings()
     {
-        return "angles: " + (angleUnits == AngleUnits.RADIANS ?
+        return "angles: " + (getAngleUnits() == AngleUnits.RADIANS ?
                "radians" : "degrees") + ", precision: " + precision;
     }
     
+    /**
+     * Returns the specified operator resolved against the current operator
+     * mappings and angle units, or {@code null} if no such operator is
+     * supported. An operator that is both unary and binary is resolved as
+     * unary.
+     *
+     * @param  operator the operator to resolve
+     * @return          the specified operator resolved against the current
+     *                  operator mappings and angle units, or {@code null} if no
+     *                  such operator is supported
+     */
+    protected Operator resolve(String operator)
+    {
+        CalculatorSettings settings = this.settings;
+        int id = settings.operator(operator);
+        if (id == CalculatorSettings.NO_OPERATOR) {
+            return null;
+        }
+        return settings.isUnary(id) ? settings.unary(id) : settings.binary(id);
+    }
+    
     /**
      * Evaluates and returns the value of applying the specified unary operator
      * to the specified operand, or {@code Double.NaN} if no such operator is
@@ -196,42 +789,10 @@ public abstract class AbstractCalculator implements Calculator<String>
      */
     protected double evalUnary(String operator, double operand)
     {
-        if (unaryOps.containsKey(operator)) {
-            if (TRIG_OPS.contains(operator)) {
-                operand = ensureAngleUnits(operand, angleUnits,
-                                           AngleUnits.RADIANS);
-            }
-            double result = unaryOps.get(operator).applyAsDouble(operand);
-            if (INV_TRIG_OPS.contains(operator)) {
-                result = ensureAngleUnits(result, AngleUnits.RADIANS,
-                                          angleUnits);
-            }
-            return result;
-        }
-        return Double.NaN;
-    }
-    
-    /**
-     * Returns the correct value of the passed angle according to the units of
-     * the passed angle and the units required.
-     *
-     * @param  angle   the angle to ensure
-     * @param  current the units of {@code angle}
-     * @param  needed  the units needed
-     * @return         the correct value of the passed angle according to the
-     *                 units of the passed angle and the units required
-     */
-    private double ensureAngleUnits(double angle, AngleUnits current,
-                                    AngleUnits needed)
-    {
-        if (current == needed) { // nothing to do
-            return angle;
-        } else if (current == AngleUnits.RADIANS) {
-            // angle is in radians, needs to be degrees
-            return Math.toDegrees(angle);
-        } else { // angle is in degrees, needs to be radians
-            return Math.toRadians(angle);
-        }
+        CalculatorSettings settings = this.settings;
+        int id = settings.operator(operator);
+        return id != CalculatorSettings.NO_OPERATOR && settings.isUnary(id) ?
+               settings.unary(id).apply(operand) : Double.NaN;
     }
     
     /**
@@ -249,8 +810,9 @@ public abstract class AbstractCalculator implements Calculator<String>
     protected double evalBinary(String operator, double operand1,
                                 double operand2)
     {
-        return binaryOps.containsKey(operator) ?
-               binaryOps.get(operator).applyAsDouble(operand1, operand2) :
-               Double.NaN;
+        CalculatorSettings settings = this.settings;
+        int id = settings.operator(operator);
+        return id != CalculatorSettings.NO_OPERATOR && settings.isBinary(id) ?
+               settings.binary(id).apply(operand1, operand2) : Double.NaN;
     }
 }
\ No newline at end of file
@@ -0,0 +1,205 @@
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * The {@code BatchEvaluator} class evaluates large lists of expressions in
+ * parallel with a shared calculator. The list is split into chunks that are
+ * evaluated as fork/join tasks, each worker thread using its own {@code
+ * EvaluationContext}, and the results are returned in input order.
+ * <p>
+ * Expressions can be evaluated either independently, with {@code "ans"} never
+ * having a value, or chained, with {@code "ans"} taking the value of the
+ * previous expression just as if the list were evaluated one expression at a
+ * time. In chained mode, the list is split into runs that each start with an
+ * expression that does not mention {@code "ans"} and continue with the
+ * expressions that do. Only the expressions within a run depend on one
+ * another, so runs are evaluated in parallel and the expressions of each run
+ * in order.
+ *
+ * @author Kevin Zhu
+ */
+public final class BatchEvaluator
+{
+    /** The number of expressions below which a chunk is not split. */
+    private static final int CHUNK_SIZE = 256;
+    
+    /** The calculator evaluating the expressions. */
+    private final AbstractCalculator calculator;
+    
+    /** The pool running the evaluation tasks. */
+    private final ForkJoinPool pool;
+    
+    /** The evaluation context of each worker thread. */
+    private final ThreadLocal<EvaluationContext> contexts;
+    
+    /**
+     * Constructs a {@code BatchEvaluator} object that evaluates expressions
+     * with the specified calculator on the common fork/join pool.
+     *
+     * @param calculator the calculator to evaluate expressions with
+     */
+    public BatchEvaluator(AbstractCalculator calculator)
+    {
+        this(calculator, ForkJoinPool.commonPool());
+    }
+    
+    /**
+     * Constructs a {@code BatchEvaluator} object that evaluates expressions
+     * with the specified calculator on the specified fork/join pool.
+     *
+     * @param calculator the calculator to evaluate expressions with
+     * @param pool       the pool to run evaluation tasks on
+     */
+    public BatchEvaluator(AbstractCalculator calculator, ForkJoinPool pool)
+    {
+        this.calculator = calculator;
+        this.pool = pool;
+        contexts = ThreadLocal.withInitial(EvaluationContext::new);
+    }
+    
+    /**
+     * Evaluates the specified expressions independently of one another and
+     * returns their values in the same order. {@code "ans"} evaluates to
+     * {@code Double.NaN} in every expression.
+     *
+     * @param  expressions the expressions to evaluate
+     * @return             the values of the specified expressions, in order
+     */
+    public double[] evaluate(List<String> expressions)
+    {
+        int[] runs = new int[expressions.size() + 1];
+        for (int i = 0; i < runs.length; ++i) {
+            runs[i] = i; // every expression is a run of its own
+        }
+        return evaluate(expressions, runs, Double.NaN);
+    }
+    
+    /**
+     * Evaluates the specified expressions as if one at a time in order, with
+     * {@code "ans"} in each expression taking the value of the previous one,
+     * or the specified value in the first expression, and returns their values
+     * in the same order.
+     *
+     * @param  expressions the expressions to evaluate
+     * @param  answer      the value of {@code "ans"} in the first expression
+     * @return             the values of the specified expressions, in order
+     */
+    public double[] evaluateChained(List<String> expressions, double answer)
+    {
+        int[] runs = new int[expressions.size() + 1];
+        int count = 0;
+        for (int i = 0; i < expressions.size(); ++i) {
+            if (i == 0 || !refersToAnswer(expressions.get(i))) {
+                runs[count++] = i;
+            }
+        }
+        runs[count++] = expressions.size();
+        return evaluate(expressions, Arrays.copyOf(runs, count), answer);
+    }
+    
+    /**
+     * Evaluates the specified runs of expressions in parallel and returns the
+     * values of the expressions in order.
+     *
+     * @param  expressions the expressions to evaluate
+     * @param  runs        the index of the first expression of each run,
+     *                     followed by the number of expressions
+     * @param  answer      the value of {@code "ans"} at the start of each run
+     * @return             the values of the specified expressions, in order
+     */
+    private double[] evaluate(List<String> expressions, int[] runs,
+                              double answer)
+    {
+        String[] sources = expressions.toArray(new String[0]);
+        double[] results = new double[sources.length];
+        pool.invoke(new Chunk(sources, runs, 0, runs.length - 1, answer,
+                              results));
+        return results;
+    }
+    
+    /**
+     * Returns {@code true} if the specified expression may refer to {@code
+     * "ans"}; {@code false} otherwise. The check is conservative: it only
+     * looks for the text {@code "ans"}, so an expression that merely contains
+     * it as part of another token is treated as dependent, which costs some
+     * parallelism but never correctness.
+     *
+     * @param  expression the expression to check
+     * @return            {@code true} if the specified expression may refer to
+     *                    {@code "ans"}; {@code false} otherwise
+     */
+    private static boolean refersToAnswer(String expression)
+    {
+        return expression.contains("ans");
+    }
+    
+    /** A task evaluating a range of runs, splitting it if it is large. */
+    private final class Chunk extends RecursiveAction
+    {
+        /** Serialization version, unused as tasks are never serialized. */
+        private static final long serialVersionUID = 1L;
+        
+        /** The expressions to evaluate. */
+        private final String[] sources;
+        
+        /** The index of the first expression of each run, and the end. */
+        private final int[] runs;
+        
+        /** The index of the first run of this chunk. */
+        private final int fromRun;
+        
+        /** The index after the last run of this chunk. */
+        private final int toRun;
+        
+        /** The value of {@code "ans"} at the start of each run. */
+        private final double answer;
+        
+        /** The array to store the value of each expression in. */
+        private final double[] results;
+        
+        /**
+         * Constructs a {@code Chunk} object evaluating the specified range of
+         * runs.
+         *
+         * @param sources the expressions to evaluate
+         * @param runs    the index of the first expression of each run,
+         *                followed by the number of expressions
+         * @param fromRun the index of the first run to evaluate
+         * @param toRun   the index after the last run to evaluate
+         * @param answer  the value of {@code "ans"} at the start of each run
+         * @param results the array to store the value of each expression in
+         */
+        private Chunk(String[] sources, int[] runs, int fromRun, int toRun,
+                      double answer, double[] results)
+        {
+            this.sources = sources;
+            this.runs = runs;
+            this.fromRun = fromRun;
+            this.toRun = toRun;
+            this.answer = answer;
+            this.results = results;
+        }
+        
+        /** {@inheritDoc} */
+        @Override
+        protected void compute()
+        {
+            if (toRun - fromRun > 1 &&
+                    runs[toRun] - runs[fromRun] > CHUNK_SIZE) {
+                int middle = (fromRun + toRun) >>> 1;
+                invokeAll(new Chunk(sources, runs, fromRun, middle, answer,
+                                    results),
+                          new Chunk(sources, runs, middle, toRun, answer,
+                                    results));
+                return;
+            }
+            EvaluationContext context = contexts.get();
+            for (int run = fromRun; run < toRun; ++run) {
+                context.setAnswer(answer);
+                for (int i = runs[run]; i < runs[run + 1]; ++i) {
+                    results[i] = calculator.evaluate(sources[i], context);
+                }
+            }
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,679 @@
+import java.io.*;
+import java.lang.invoke.*;
+import java.util.*;
+
+/**
+ * The {@code BytecodeGenerator} class translates compiled expressions into
+ * JVM bytecode. Each expression becomes a hidden class whose single method
+ * evaluates the expression as straight-line {@code double} arithmetic, so the
+ * JIT compiler can inline calls such as {@code Math.sin} and {@code Math.pow}
+ * instead of dispatching through the operator functions of a calculator.
+ * <p>
+ * Only the default operator functions of {@code AbstractCalculator} are
+ * translated directly. Any other operator, such as a client-provided function
+ * passed to {@code setUnaryOps}, is called through its {@code Operator} object
+ * just as the interpreter would call it.
+ *
+ * @author Kevin Zhu
+ */
+public final class BytecodeGenerator
+{
+    /** The largest code length a JVM method may have. */
+    private static final int MAX_CODE_LENGTH = 65535;
+    
+    /** The local variable slot of the answer parameter. */
+    private static final int ANSWER_SLOT = 1;
+    
+    /** The local variable slot of the bindings parameter. */
+    private static final int BINDINGS_SLOT = 3;
+    
+    /** The local variable slot of the operators parameter. */
+    private static final int OPERATORS_SLOT = 4;
+    
+    /** The local variable slot of the first temporary operand. */
+    private static final int FIRST_TEMP_SLOT = 5;
+    
+    /** The local variable slot of the second temporary operand. */
+    private static final int SECOND_TEMP_SLOT = 7;
+    
+    /** The number of local variable slots the generated method uses. */
+    private static final int MAX_LOCALS = 9;
+    
+    // JVM opcodes used by the generator
+    private static final int ACONST_NULL = 0x01, ICONST_0 = 0x03,
+        DCONST_0 = 0x0e, DCONST_1 = 0x0f, BIPUSH = 0x10, SIPUSH = 0x11,
+        LDC_W = 0x13, LDC2_W = 0x14, DLOAD = 0x18, ALOAD = 0x19,
+        ALOAD_0 = 0x2a, DALOAD = 0x31, AALOAD = 0x32, DSTORE = 0x39,
+        POP2 = 0x58, DUP2 = 0x5c, DADD = 0x63, DSUB = 0x67, DMUL = 0x6b,
+        DDIV = 0x6f, DREM = 0x73, L2D = 0x8a, DRETURN = 0xaf, RETURN = 0xb1,
+        INVOKEVIRTUAL = 0xb6, INVOKESPECIAL = 0xb7, INVOKESTATIC = 0xb8;
+    
+    /** Sole constructor, preventing instantiation. */
+    private BytecodeGenerator()
+    {
+    }
+    
+    /**
+     * Generates a hidden class evaluating the specified program and returns
+     * an instance of it, or {@code null} if the program is too large to fit
+     * in a single JVM method.
+     *
+     * @param  code      the instructions of the program
+     * @param  constants the constants referenced by the instructions
+     * @param  operators the operators referenced by the instructions
+     * @param  maxStack  the deepest the operand stack gets in the program
+     * @return           an instance of a hidden class evaluating the program,
+     *                   or {@code null} if the program is too large
+     */
+    static CompiledExpression.Kernel generate(int[] code, double[] constants,
+                                              Operator[] operators,
+                                              int maxStack)
+    {
+        ConstantPool pool = new ConstantPool();
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        for (int instruction : code) {
+            int argument = instruction >>> CompiledExpression.OPCODE_BITS;
+            int opcode = instruction & CompiledExpression.OPCODE_MASK;
+            switch (opcode) {
+                case CompiledExpression.CONSTANT:
+                    pushConstant(body, pool, constants[argument]);
+                    break;
+                case CompiledExpression.ANSWER:
+                    body.write(DLOAD);
+                    body.write(ANSWER_SLOT);
+                    break;
+                case CompiledExpression.VARIABLE:
+                    body.write(ALOAD);
+                    body.write(BINDINGS_SLOT);
+                    pushInt(body, pool, argument);
+                    body.write(DALOAD);
+                    break;
+                default:
+                    if (CompiledExpression.isUnary(opcode)) {
+                        unary(body, pool, operators[argument], argument);
+                    } else {
+                        binary(body, pool, operators[argument], argument);
+                    }
+                    break;
+            }
+        }
+        body.write(DRETURN);
+        if (body.size() > MAX_CODE_LENGTH) {
+            return null;
+        }
+        byte[] bytes = classFile(pool, body.toByteArray(), 2 * maxStack + 4);
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup()
+                    .defineHiddenClass(bytes, true);
+            return (CompiledExpression.Kernel) lookup.findConstructor(
+                    lookup.lookupClass(), MethodType.methodType(void.class))
+                    .invoke();
+        } catch (Throwable e) { // the generated class is always well-formed
+            throw new IllegalStateException(e);
+        }
+    }
+    
+    /**
+     * Writes bytecode applying the specified unary operator to the top of the
+     * JVM operand stack.
+     *
+     * @param body     the bytecode being written
+     * @param pool     the constant pool of the class being generated
+     * @param operator the operator to apply
+     * @param index    the index of the operator in the operators parameter
+     */
+    private static void unary(ByteArrayOutputStream body, ConstantPool pool,
+                              Operator operator, int index)
+    {
+        String builtin = operator.builtin();
+        if (builtin == null) { // call the operator like the interpreter does
+            store(body, FIRST_TEMP_SLOT);
+            loadOperator(body, pool, index);
+            load(body, FIRST_TEMP_SLOT);
+            invoke(body, pool, INVOKEVIRTUAL, "Operator", "apply", "(D)D");
+            return;
+        }
+        if (builtin.startsWith("^")) { // a specialized power from Powers
+            power(body, pool, builtin.substring(1));
+            return;
+        }
+        if (operator.degreesIn()) {
+            invokeMath(body, pool, "toRadians");
+        }
+        switch (builtin) {
+            case "!":
+                body.write(INVOKESTATIC);
+                writeShort(body, pool.interfaceMethod("Calculator",
+                        "factorial", "(D)D"));
+                break;
+            case "~":
+                invoke(body, pool, INVOKESTATIC, "java/lang/Math", "round",
+                       "(D)J");
+                body.write(L2D);
+                break;
+            case "sec":
+                invokeMath(body, pool, "cos");
+                reciprocal(body);
+                break;
+            case "csc":
+                invokeMath(body, pool, "sin");
+                reciprocal(body);
+                break;
+            case "cot":
+                invokeMath(body, pool, "tan");
+                reciprocal(body);
+                break;
+            case "asec":
+                reciprocal(body);
+                invokeMath(body, pool, "acos");
+                break;
+            case "acsc":
+                reciprocal(body);
+                invokeMath(body, pool, "asin");
+                break;
+            case "acot":
+                reciprocal(body);
+                invokeMath(body, pool, "atan");
+                break;
+            case "ln":
+                invokeMath(body, pool, "log");
+                break;
+            default: // same name as the Math method
+                invokeMath(body, pool, builtin);
+                break;
+        }
+        if (operator.degreesOut()) {
+            invokeMath(body, pool, "toDegrees");
+        }
+    }
+    
+    /**
+     * Writes bytecode applying the specified binary operator to the top two
+     * values of the JVM operand stack.
+     *
+     * @param body     the bytecode being written
+     * @param pool     the constant pool of the class being generated
+     * @param operator the operator to apply
+     * @param index    the index of the operator in the operators parameter
+     */
+    private static void binary(ByteArrayOutputStream body, ConstantPool pool,
+                               Operator operator, int index)
+    {
+        String builtin = operator.builtin();
+        if (builtin == null) { // call the operator like the interpreter does
+            store(body, SECOND_TEMP_SLOT);
+            store(body, FIRST_TEMP_SLOT);
+            loadOperator(body, pool, index);
+            load(body, FIRST_TEMP_SLOT);
+            load(body, SECOND_TEMP_SLOT);
+            invoke(body, pool, INVOKEVIRTUAL, "Operator", "apply", "(DD)D");
+            return;
+        }
+        switch (builtin) {
+            case "+":
+                body.write(DADD);
+                break;
+            case "-":
+                body.write(DSUB);
+                break;
+            case "*":
+                body.write(DMUL);
+                break;
+            case "/":
+                body.write(DDIV);
+                break;
+            case "%":
+                body.write(DREM);
+                break;
+            default: // "^"
+                invoke(body, pool, INVOKESTATIC, "java/lang/Math", "pow",
+                       "(DD)D");
+                break;
+        }
+    }
+    
+    /**
+     * Writes bytecode raising the top of the JVM operand stack to the
+     * specified constant exponent, as the specialized power of {@code Powers}
+     * for that exponent does.
+     *
+     * @param body     the bytecode being written
+     * @param pool     the constant pool of the class being generated
+     * @param exponent the exponent, as it appears in the symbol of the power
+     */
+    private static void power(ByteArrayOutputStream body, ConstantPool pool,
+                              String exponent)
+    {
+        switch (exponent) {
+            case "0":
+                body.write(POP2);
+                body.write(DCONST_1);
+                break;
+            case "2":
+                body.write(DUP2);
+                body.write(DMUL);
+                break;
+            case "0.5":
+                invoke(body, pool, INVOKESTATIC, "Powers", "squareRoot",
+                       "(D)D");
+                break;
+            default:
+                int n = Integer.parseInt(exponent);
+                pushInt(body, pool, Math.abs(n));
+                invoke(body, pool, INVOKESTATIC, "Powers", "power", "(DI)D");
+                if (n < 0) {
+                    reciprocal(body);
+                }
+                break;
+        }
+    }
+    
+    /**
+     * Writes bytecode replacing the top of the JVM operand stack with its
+     * reciprocal, computed as {@code 1 / x} like the default operators do.
+     *
+     * @param body the bytecode being written
+     */
+    private static void reciprocal(ByteArrayOutputStream body)
+    {
+        store(body, FIRST_TEMP_SLOT);
+        body.write(DCONST_1);
+        load(body, FIRST_TEMP_SLOT);
+        body.write(DDIV);
+    }
+    
+    /**
+     * Writes bytecode pushing the specified constant.
+     *
+     * @param body  the bytecode being written
+     * @param pool  the constant pool of the class being generated
+     * @param value the constant to push
+     */
+    private static void pushConstant(ByteArrayOutputStream body,
+                                     ConstantPool pool, double value)
+    {
+        long bits = Double.doubleToRawLongBits(value);
+        if (bits == 0L) { // positive zero only
+            body.write(DCONST_0);
+        } else if (bits == Double.doubleToRawLongBits(1.0)) {
+            body.write(DCONST_1);
+        } else {
+            body.write(LDC2_W);
+            writeShort(body, pool.doubleConstant(value));
+        }
+    }
+    
+    /**
+     * Writes bytecode pushing the specified {@code int}.
+     *
+     * @param body  the bytecode being written
+     * @param pool  the constant pool of the class being generated
+     * @param value the {@code int} to push
+     */
+    private static void pushInt(ByteArrayOutputStream body, ConstantPool pool,
+                                int value)
+    {
+        if (value <= 5) {
+            body.write(ICONST_0 + value);
+        } else if (value <= Byte.MAX_VALUE) {
+            body.write(BIPUSH);
+            body.write(value);
+        } else if (value <= Short.MAX_VALUE) {
+            body.write(SIPUSH);
+            writeShort(body, value);
+        } else {
+            body.write(LDC_W);
+            writeShort(body, pool.intConstant(value));
+        }
+    }
+    
+    /**
+     * Writes bytecode pushing the operator at the specified index of the
+     * operators parameter.
+     *
+     * @param body  the bytecode being written
+     * @param pool  the constant pool of the class being generated
+     * @param index the index of the operator
+     */
+    private static void loadOperator(ByteArrayOutputStream body,
+                                     ConstantPool pool, int index)
+    {
+        body.write(ALOAD);
+        body.write(OPERATORS_SLOT);
+        pushInt(body, pool, index);
+        body.write(AALOAD);
+    }
+    
+    /**
+     * Writes bytecode storing the top of the JVM operand stack in the
+     * specified local variable.
+     *
+     * @param body the bytecode being written
+     * @param slot the local variable slot
+     */
+    private static void store(ByteArrayOutputStream body, int slot)
+    {
+        body.write(DSTORE);
+        body.write(slot);
+    }
+    
+    /**
+     * Writes bytecode pushing the specified local variable.
+     *
+     * @param body the bytecode being written
+     * @param slot the local variable slot
+     */
+    private static void load(ByteArrayOutputStream body, int slot)
+    {
+        body.write(DLOAD);
+        body.write(slot);
+    }
+    
+    /**
+     * Writes bytecode calling the {@code Math} method with the specified name
+     * that takes and returns a {@code double}.
+     *
+     * @param body the bytecode being written
+     * @param pool the constant pool of the class being generated
+     * @param name the name of the method
+     */
+    private static void invokeMath(ByteArrayOutputStream body,
+                                   ConstantPool pool, String name)
+    {
+        invoke(body, pool, INVOKESTATIC, "java/lang/Math", name, "(D)D");
+    }
+    
+    /**
+     * Writes bytecode calling the specified class method.
+     *
+     * @param body       the bytecode being written
+     * @param pool       the constant pool of the class being generated
+     * @param opcode     the invoke instruction to use
+     * @param owner      the internal name of the class declaring the method
+     * @param name       the name of the method
+     * @param descriptor the descriptor of the method
+     */
+    private static void invoke(ByteArrayOutputStream body, ConstantPool pool,
+                               int opcode, String owner, String name,
+                               String descriptor)
+    {
+        body.write(opcode);
+        writeShort(body, pool.method(owner, name, descriptor));
+    }
+    
+    /**
+     * Returns the bytes of a class file implementing {@code
+     * CompiledExpression.Kernel} with the specified method body.
+     *
+     * @param  pool     the constant pool used by the method body
+     * @param  body     the bytecode of the evaluating method
+     * @param  maxStack the deepest the JVM operand stack gets in the body
+     * @return          the bytes of the class file
+     */
+    private static byte[] classFile(ConstantPool pool, byte[] body,
+                                    int maxStack)
+    {
+        int thisClass = pool.classRef("CompiledExpressionKernel");
+        int superClass = pool.classRef("java/lang/Object");
+        int kernel = pool.classRef("CompiledExpression$Kernel");
+        int superInit = pool.method("java/lang/Object", "<init>", "()V");
+        int init = pool.utf8("<init>");
+        int initType = pool.utf8("()V");
+        int evaluate = pool.utf8("evaluate");
+        int evaluateType = pool.utf8("(D[D[LOperator;)D");
+        int codeAttribute = pool.utf8("Code");
+        
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeInt(out, 0xcafebabe);
+        writeShort(out, 0);  // minor version
+        writeShort(out, 52); // major version (Java 8)
+        pool.writeTo(out);
+        writeShort(out, 0x0031); // ACC_PUBLIC | ACC_FINAL | ACC_SUPER
+        writeShort(out, thisClass);
+        writeShort(out, superClass);
+        writeShort(out, 1);
+        writeShort(out, kernel);
+        writeShort(out, 0); // fields
+        writeShort(out, 2); // methods
+        
+        byte[] initBody = {
+            (byte) ALOAD_0, (byte) INVOKESPECIAL,
+            (byte) (superInit >> 8), (byte) superInit, (byte) RETURN
+        };
+        writeMethod(out, init, initType, codeAttribute, initBody, 1, 1);
+        writeMethod(out, evaluate, evaluateType, codeAttribute, body,
+                    maxStack, MAX_LOCALS);
+        writeShort(out, 0); // attributes
+        return out.toByteArray();
+    }
+    
+    /**
+     * Writes a public method with the specified code to a class file.
+     *
+     * @param out           the class file being written
+     * @param name          the constant pool index of the method name
+     * @param descriptor    the constant pool index of the method descriptor
+     * @param codeAttribute the constant pool index of {@code "Code"}
+     * @param body          the bytecode of the method
+     * @param maxStack      the deepest the JVM operand stack gets
+     * @param maxLocals     the number of local variable slots used
+     */
+    private static void writeMethod(ByteArrayOutputStream out, int name,
+                                    int descriptor, int codeAttribute,
+                                    byte[] body, int maxStack, int maxLocals)
+    {
+        writeShort(out, 0x0001); // ACC_PUBLIC
+        writeShort(out, name);
+        writeShort(out, descriptor);
+        writeShort(out, 1);
+        writeShort(out, codeAttribute);
+        writeInt(out, 12 + body.length);
+        writeShort(out, maxStack);
+        writeShort(out, maxLocals);
+        writeInt(out, body.length);
+        out.write(body, 0, body.length);
+        writeShort(out, 0); // exception table
+        writeShort(out, 0); // attributes
+    }
+    
+    /**
+     * Writes the specified value as two big-endian bytes.
+     *
+     * @param out   the stream to write to
+     * @param value the value to write
+     */
+    private static void writeShort(ByteArrayOutputStream out, int value)
+    {
+        out.write(value >>> 8);
+        out.write(value);
+    }
+    
+    /**
+     * Writes the specified value as four big-endian bytes.
+     *
+     * @param out   the stream to write to
+     * @param value the value to write
+     */
+    private static void writeInt(ByteArrayOutputStream out, int value)
+    {
+        writeShort(out, value >>> 16);
+        writeShort(out, value);
+    }
+    
+    /**
+     * The constant pool of a class file being generated. Entries are added on
+     * demand and shared when requested more than once.
+     */
+    private static final class ConstantPool
+    {
+        /** The bytes of the entries added so far. */
+        private final ByteArrayOutputStream entries =
+            new ByteArrayOutputStream();
+        
+        /** The indices of the entries added so far, by their contents. */
+        private final Map<String, Integer> indices = new HashMap<>();
+        
+        /** The index the next entry will have. */
+        private int nextIndex = 1;
+        
+        /**
+         * Returns the index of a {@code CONSTANT_Utf8} entry.
+         *
+         * @param  value the string of the entry
+         * @return       the index of the entry
+         */
+        private int utf8(String value)
+        {
+            Integer index = indices.get("U" + value);
+            if (index == null) {
+                DataOutputStream data = new DataOutputStream(entries);
+                try {
+                    data.writeByte(1);
+                    data.writeUTF(value);
+                } catch (IOException e) { // not thrown by byte array streams
+                    throw new UncheckedIOException(e);
+                }
+                index = add("U" + value, 1);
+            }
+            return index;
+        }
+        
+        /**
+         * Returns the index of a {@code CONSTANT_Integer} entry.
+         *
+         * @param  value the value of the entry
+         * @return       the index of the entry
+         */
+        private int intConstant(int value)
+        {
+            Integer index = indices.get("I" + value);
+            if (index == null) {
+                entries.write(3);
+                writeInt(entries, value);
+                index = add("I" + value, 1);
+            }
+            return index;
+        }
+        
+        /**
+         * Returns the index of a {@code CONSTANT_Double} entry.
+         *
+         * @param  value the value of the entry
+         * @return       the index of the entry
+         */
+        private int doubleConstant(double value)
+        {
+            long bits = Double.doubleToRawLongBits(value);
+            Integer index = indices.get("D" + bits);
+            if (index == null) {
+                entries.write(6);
+                writeInt(entries, (int) (bits >>> 32));
+                writeInt(entries, (int) bits);
+                index = add("D" + bits, 2); // doubles take two entries
+            }
+            return index;
+        }
+        
+        /**
+         * Returns the index of a {@code CONSTANT_Class} entry.
+         *
+         * @param  name the internal name of the class
+         * @return      the index of the entry
+         */
+        private int classRef(String name)
+        {
+            Integer index = indices.get("C" + name);
+            if (index == null) {
+                int utf8 = utf8(name);
+                entries.write(7);
+                writeShort(entries, utf8);
+                index = add("C" + name, 1);
+            }
+            return index;
+        }
+        
+        /**
+         * Returns the index of a {@code CONSTANT_Methodref} entry.
+         *
+         * @param  owner      the internal name of the declaring class
+         * @param  name       the name of the method
+         * @param  descriptor the descriptor of the method
+         * @return            the index of the entry
+         */
+        private int method(String owner, String name, String descriptor)
+        {
+            return memberRef(10, owner, name, descriptor);
+        }
+        
+        /**
+         * Returns the index of a {@code CONSTANT_InterfaceMethodref} entry.
+         *
+         * @param  owner      the internal name of the declaring interface
+         * @param  name       the name of the method
+         * @param  descriptor the descriptor of the method
+         * @return            the index of the entry
+         */
+        private int interfaceMethod(String owner, String name,
+                                    String descriptor)
+        {
+            return memberRef(11, owner, name, descriptor);
+        }
+        
+        /**
+         * Returns the index of a member reference entry with the specified
+         * tag.
+         *
+         * @param  tag        the tag of the entry
+         * @param  owner      the internal name of the declaring class
+         * @param  name       the name of the member
+         * @param  descriptor the descriptor of the member
+         * @return            the index of the entry
+         */
+        private int memberRef(int tag, String owner, String name,
+                              String descriptor)
+        {
+            String key = "M" + tag + owner + "." + name + descriptor;
+            Integer index = indices.get(key);
+            if (index == null) {
+                int ownerIndex = classRef(owner);
+                int nameIndex = utf8(name);
+                int typeIndex = utf8(descriptor);
+                entries.write(12); // CONSTANT_NameAndType
+                writeShort(entries, nameIndex);
+                writeShort(entries, typeIndex);
+                int nameAndType = add("N" + key, 1);
+                entries.write(tag);
+                writeShort(entries, ownerIndex);
+                writeShort(entries, nameAndType);
+                index = add(key, 1);
+            }
+            return index;
+        }
+        
+        /**
+         * Records the index of the entry just written.
+         *
+         * @param  key  the contents of the entry
+         * @param  size the number of indices the entry takes
+         * @return      the index of the entry
+         */
+        private int add(String key, int size)
+        {
+            int index = nextIndex;
+            indices.put(key, index);
+            nextIndex += size;
+            return index;
+        }
+        
+        /**
+         * Writes the entry count and entries of this pool to a class file.
+         *
+         * @param out the class file being written
+         */
+        private void writeTo(ByteArrayOutputStream out)
+        {
+            writeShort(out, nextIndex);
+            out.write(entries.toByteArray(), 0, entries.size());
+        }
+    }
+}
\ No newline at end of file
@@ -32,7 +32,10 @@ public interface Calculator<T>
     /**
      * Calculates and returns the mathematical factorial of the specified {@code
      * double}. If the specified {@code double} is not a whole number or is
-     * negative, returns {@code Double.NaN} instead.
+     * negative, returns {@code Double.NaN} instead. Factorials too large to
+     * represent as a {@code double}, from {@code 171!} on, are {@code
+     * Double.POSITIVE_INFINITY}. Factorials are looked up in a precomputed
+     * table, so this method takes the same time for every input.
      *
      * @param  n the {@code double} to calculate the factorial of
      * @return   the factorial of {@code n}, or {@code Double.NaN} if {@code n}
@@ -40,13 +43,47 @@ public interface Calculator<T>
      */
     static double factorial(double n)
     {
-        if ((int) n != n || n < 0) {
+        if (Math.floor(n) != n || n < 0) {
             return Double.NaN;
+        } else if (n > MathTables.MAX_FACTORIAL) {
+            return Double.POSITIVE_INFINITY;
         }
-        long product = 1;
-        for (long i = (long) n; i > 1; --i) {
-            product *= i;
+        return MathTables.FACTORIALS[(int) n];
+    }
+    
+    /**
+     * Calculates and returns the gamma function of the specified {@code
+     * double}, which extends the factorial to real numbers so that {@code
+     * gamma(n + 1)} equals {@code n!}. If the specified {@code double} is zero
+     * or a negative whole number, where the gamma function has poles, returns
+     * {@code Double.NaN} instead.
+     * <p>
+     * Whole numbers use the factorial table and are exact to the nearest
+     * {@code double}; other values use the Lanczos approximation, accurate to
+     * about 15 significant digits. The gamma function is not a default
+     * operator, but can be added to a calculator like any other function,
+     * such as under the key {@code "gamma"} in the map passed to {@code
+     * setUnaryOps}.
+     *
+     * @param  x the {@code double} to calculate the gamma function of
+     * @return   the gamma function of {@code x}, or {@code Double.NaN} if
+     *           {@code x} is zero or a negative whole number
+     */
+    static double gamma(double x)
+    {
+        if (Math.floor(x) == x) {
+            return x > 0 ? factorial(x - 1) : Double.NaN;
+        } else if (x < 0.5) { // reflection formula
+            return Math.PI / (Math.sin(Math.PI * x) * gamma(1 - x));
+        }
+        double[] coefficients = MathTables.LANCZOS_COEFFICIENTS;
+        double z = x - 1;
+        double sum = coefficients[0];
+        for (int i = 1; i < coefficients.length; ++i) {
+            sum += coefficients[i] / (z + i);
         }
-        return product;
+        double t = z + MathTables.LANCZOS_G + 0.5;
+        double power = Math.pow(t, (z + 0.5) / 2); // halved to delay overflow
+        return MathTables.SQRT_TWO_PI * power * (power * Math.exp(-t)) * sum;
     }
 }
\ No newline at end of file
@@ -1,4 +1,8 @@
+import java.io.*;
+import java.nio.charset.*;
+import java.nio.file.*;
 import java.util.*;
+import java.util.concurrent.*;
 import java.util.function.*;
 
 /**
@@ -7,6 +11,11 @@ import java.util.function.*;
  * implementations. It contains methods and constants allowing users to interact
  * with the various calculators and make requests to the application to display
  * informative text or change their settings.
+ * <p>
+ * When started with command line arguments, the application instead runs in
+ * batch mode, evaluating one expression per line of an input file or the
+ * standard input and writing one result per line, with no prompts or
+ * settings in between.
  *
  * @author Kevin Zhu
  */
@@ -42,24 +51,41 @@ public class CalculatorMain
             Map.entry(ANGLE_UNITS.keySet(), CalculatorMain::setAngleUnits)
         );
     
+    /** The command line options accepted in batch mode. */
+    private static final Set<String> BATCH_OPTIONS =
+        Set.of("--notation", "--angles", "--input", "--output", "--precision",
+               "--threads", "--port");
+    
+    /** The number of lines read at a time when evaluating in parallel. */
+    private static final int PARALLEL_BLOCK_LINES = 1 << 16;
+    
     /** The calculator used across this application. */
     private static AbstractCalculator calc;
     
     /** The {@code Scanner} linked to the standard input. */
     private static Scanner console;
     
+    /** The formatter of results, for the precision of the calculator. */
+    private static DecimalFormatter formatter;
+    
     /**
      * The entry point of the console application. Provides user interaction
      * through the console, allowing users to enter calculator expressions to
      * evaluate and change their settings until there is a request to quit.
+     * If any command line arguments are given, runs in batch mode instead.
      *
      * @param args the command line arguments
      */
     public static void main(String[] args)
     {
+        if (args.length > 0) {
+            runBatch(args);
+            return;
+        }
         System.out.println("Welcome to Kevin's Java calculator! Enter " +
                 "\"help\" to view calculator commands and operations.\n");
         calc = CALCULATORS.get("infix");
+        updateFormatter();
         console = new Scanner(System.in);
         System.out.println(calc.settings());
         System.out.print(">> ");
@@ -72,8 +98,9 @@ public class CalculatorMain
                 if (Double.isNaN(ans)) {
                     System.out.println("ERROR\n");
                 } else {
-                    System.out.printf("%s = %." + calc.getPrecision() + "f%n%n",
-                                      input, ans);
+                    System.out.println(input + " = " +
+                                       formatter.format(ans));
+                    System.out.println();
                 }
             } else {
                 REQUESTS.get(requestType).accept(input);
@@ -85,6 +112,256 @@ public class CalculatorMain
         }
     }
     
+    /**
+     * Runs this application in batch mode with the specified command line
+     * arguments, which are pairs of an option and its value:
+     * <pre>
+     * --notation  prefix, infix or postfix (default infix)
+     * --angles    radians or degrees (default radians)
+     * --input     file to read expressions from (default standard input)
+     * --output    file to write results to (default standard output)
+     * --precision number of digits after the decimal point (default 2)
+     * --threads   number of threads to evaluate with (default 1)
+     * --port      port to serve requests on instead of reading input
+     * </pre>
+     * Each input line is evaluated as one expression, and its result is
+     * written on its own line, or {@code "ERROR"} if it is invalid, so that
+     * output lines match input lines. With more than one thread, lines are
+     * evaluated in parallel but results are the same as with one, including
+     * lines referring to {@code "ans"}.
+     * <p>
+     * With a port, the application instead runs a {@code CalculatorServer} on
+     * that port of the loopback address until it is killed, ignoring the
+     * notation, input, output and thread options. Exits with status 1 if the
+     * arguments are invalid or a file or port cannot be used.
+     *
+     * @param args the command line arguments
+     */
+    private static void runBatch(String[] args)
+    {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i < args.length; i += 2) {
+            if (!BATCH_OPTIONS.contains(args[i]) || i + 1 == args.length ||
+                    options.put(args[i], args[i + 1]) != null) {
+                exitWithUsage("Invalid option: " + args[i]);
+            }
+        }
+        calc = CALCULATORS.get(options.getOrDefault("--notation", "infix"));
+        AbstractCalculator.AngleUnits angleUnits =
+            ANGLE_UNITS.get(options.getOrDefault("--angles", "radians"));
+        int precision = parseCount(options.get("--precision"),
+                                   AbstractCalculator.DEFAULT_PRECISION);
+        int threads = parseCount(options.get("--threads"), 1);
+        int port = parseCount(options.get("--port"), -1);
+        if (calc == null || angleUnits == null || precision < 0 ||
+                threads < 1 || port > 65535 ||
+                (port < 0 && options.containsKey("--port"))) {
+            exitWithUsage("Invalid option value.");
+        }
+        if (port >= 0) {
+            serve(port, angleUnits, precision);
+            return;
+        }
+        calc.setAngleUnits(angleUnits);
+        calc.setPrecision(precision);
+        try (BufferedReader in = openInput(options.get("--input"));
+             BufferedWriter out = openOutput(options.get("--output"))) {
+            if (threads == 1) {
+                evaluateAll(in, out);
+            } else {
+                evaluateAll(in, out, threads);
+            }
+        } catch (IOException | InvalidPathException e) {
+            System.err.println("Error: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+    
+    /**
+     * Serves requests on the specified port with all of the calculators of
+     * this application, set to the specified angle units and precision.
+     *
+     * @param port       the port to listen on
+     * @param angleUnits the angle units to evaluate with
+     * @param precision  the number of digits after the decimal point
+     */
+    private static void serve(int port,
+                              AbstractCalculator.AngleUnits angleUnits,
+                              int precision)
+    {
+        for (AbstractCalculator calculator : CALCULATORS.values()) {
+            calculator.setAngleUnits(angleUnits);
+            calculator.setPrecision(precision);
+        }
+        try (CalculatorServer server =
+                 new CalculatorServer(port, CALCULATORS, precision)) {
+            System.out.println("Listening on port " + server.getPort() + ".");
+            server.serve();
+        } catch (IOException e) {
+            System.err.println("Error: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+    
+    /**
+     * Evaluates every line read from the specified reader with the current
+     * calculator, writing each result to the specified writer.
+     *
+     * @param  in          the reader to read expressions from
+     * @param  out         the writer to write results to
+     * @throws IOException if an I/O error occurs
+     */
+    private static void evaluateAll(BufferedReader in, BufferedWriter out)
+            throws IOException
+    {
+        DecimalFormatter formatter = new DecimalFormatter(calc.getPrecision());
+        for (String line; (line = in.readLine()) != null; ) {
+            double ans = calc.evaluate(line.toLowerCase());
+            if (Double.isNaN(ans)) {
+                out.write("ERROR");
+            } else {
+                formatter.write(ans, out);
+            }
+            out.newLine();
+        }
+        out.flush();
+    }
+    
+    /**
+     * Evaluates every line read from the specified reader with the current
+     * calculator on the specified number of threads, writing each result to
+     * the specified writer in input order. Lines are read and evaluated in
+     * blocks, with {@code "ans"} carried from one block to the next.
+     *
+     * @param  in          the reader to read expressions from
+     * @param  out         the writer to write results to
+     * @param  threads     the number of threads to evaluate with
+     * @throws IOException if an I/O error occurs
+     */
+    private static void evaluateAll(BufferedReader in, BufferedWriter out,
+                                    int threads) throws IOException
+    {
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            BatchEvaluator evaluator = new BatchEvaluator(calc, pool);
+            DecimalFormatter formatter =
+                new DecimalFormatter(calc.getPrecision());
+            List<String> lines = new ArrayList<>();
+            double ans = Double.NaN;
+            for (String line; (line = in.readLine()) != null; ) {
+                lines.add(line.toLowerCase());
+                if (lines.size() == PARALLEL_BLOCK_LINES) {
+                    ans = writeAll(evaluator.evaluateChained(lines, ans),
+                                   formatter, out, ans);
+                    lines.clear();
+                }
+            }
+            writeAll(evaluator.evaluateChained(lines, ans), formatter, out,
+                     ans);
+            out.flush();
+        } finally {
+            pool.shutdown();
+        }
+    }
+    
+    /**
+     * Writes the specified results with the specified formatter to the
+     * specified writer, one per line, and returns the last of them.
+     *
+     * @param  results     the results to write
+     * @param  formatter   the formatter to write valid results with
+     * @param  out         the writer to write results to
+     * @param  ans         the value to return if there are no results
+     * @return             the last of the results, or {@code ans} if there
+     *                     are none
+     * @throws IOException if an I/O error occurs
+     */
+    private static double writeAll(double[] results,
+                                   DecimalFormatter formatter,
+                                   BufferedWriter out, double ans)
+            throws IOException
+    {
+        for (double result : results) {
+            if (Double.isNaN(result)) {
+                out.write("ERROR");
+            } else {
+                formatter.write(result, out);
+            }
+            out.newLine();
+            ans = result;
+        }
+        return ans;
+    }
+    
+    /**
+     * Returns the number given by the specified option value, the specified
+     * default if there is no value, or -1 if the value is not a number.
+     *
+     * @param  value        the option value, or {@code null} if there is none
+     * @param  defaultValue the number to return if there is no value
+     * @return              the number given by the specified option value
+     */
+    private static int parseCount(String value, int defaultValue)
+    {
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+    
+    /**
+     * Returns a reader for the specified input file, or for the standard input
+     * if the path is {@code null} or {@code "-"}.
+     *
+     * @param  path        the path of the input file
+     * @return             a reader for the input
+     * @throws IOException if the file cannot be opened
+     */
+    private static BufferedReader openInput(String path) throws IOException
+    {
+        if (path == null || path.equals("-")) {
+            return new BufferedReader(new InputStreamReader(System.in,
+                    Charset.defaultCharset()));
+        }
+        return Files.newBufferedReader(Path.of(path), Charset.defaultCharset());
+    }
+    
+    /**
+     * Returns a writer for the specified output file, or for the standard
+     * output if the path is {@code null} or {@code "-"}.
+     *
+     * @param  path        the path of the output file
+     * @return             a writer for the output
+     * @throws IOException if the file cannot be opened
+     */
+    private static BufferedWriter openOutput(String path) throws IOException
+    {
+        if (path == null || path.equals("-")) {
+            return new BufferedWriter(new OutputStreamWriter(System.out,
+                    Charset.defaultCharset()));
+        }
+        return Files.newBufferedWriter(Path.of(path), Charset.defaultCharset());
+    }
+    
+    /**
+     * Prints the specified message and the batch mode usage to the standard
+     * error, then exits with status 1.
+     *
+     * @param message the message describing what was wrong
+     */
+    private static void exitWithUsage(String message)
+    {
+        System.err.println(message + "\nUsage: java CalculatorMain " +
+                "[--notation prefix|infix|postfix] [--angles radians|degrees]" +
+                "\n       [--input FILE] [--output FILE] [--precision N]" +
+                " [--threads N]\n       [--port N]");
+        System.exit(1);
+    }
+    
     /**
      * Returns the key set within {@code REQUESTS} that the specified input
      * string is contained in, or {@code null} if it is not a valid request.
@@ -150,6 +427,7 @@ public class CalculatorMain
     private static void switchCalc(String input)
     {
         calc = CALCULATORS.get(input);
+        updateFormatter();
         System.out.println("Switched to " + input + " calculator.\n");
     }
     
@@ -175,10 +453,24 @@ public class CalculatorMain
         int precision;
         if (console.hasNextInt() && (precision = console.nextInt()) >= 0) {
             calc.setPrecision(precision);
+            updateFormatter();
             System.out.println("Set precision to " + precision + ".\n");
         } else {
             System.out.println("Not a valid precision.\n");
         }
         console.nextLine(); // skip '\n' after nextInt call
     }
+    
+    /**
+     * Rebuilds the formatter of results if the precision of the current
+     * calculator differs from the one it was built for, so that results are
+     * not formatted with a new formatter each time.
+     */
+    private static void updateFormatter()
+    {
+        if (formatter == null ||
+                formatter.precision() != calc.getPrecision()) {
+            formatter = new DecimalFormatter(calc.getPrecision());
+        }
+    }
 }
\ No newline at end of file
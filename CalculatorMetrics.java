@@ -0,0 +1,235 @@
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * The {@code CalculatorMetrics} class records where calculators spend their
+ * time while evaluating expressions. Once set on a calculator through {@code
+ * setMetrics}, it records:
+ * <ul>
+ * <li>the number of times each operator was applied and the total time spent
+ *     in it, by operator symbol. Only operators applied while evaluating
+ *     are counted: unless the optimizations are {@code Optimization.NONE},
+ *     operators on constant operands are applied once at compile time and
+ *     identities such as {@code x * 1} are left out, so {@code "sqrt(4) *
+ *     3"} records no {@code "sqrt"} and no {@code "*"};
+ * <li>the number of times each phase of evaluation ran and the total time
+ *     spent in it: reading tokens, parsing them and evaluating the result;
+ * <li>the number of invalid expressions evaluated, by the cause of the error;
+ * <li>the latency of each evaluation, in a histogram from which percentiles
+ *     can be read.
+ * </ul>
+ * <p>
+ * All of this is read through the {@code snapshot} method, which returns an
+ * immutable {@code MetricsSnapshot}. A single {@code CalculatorMetrics}
+ * object may be set on several calculators and updated by many threads at
+ * once; all counters are lock-free.
+ * <p>
+ * Measuring has a cost: while metrics are set, expressions are tokenized in
+ * full before being parsed, every expression is evaluated by the interpreter
+ * rather than by generated bytecode, and every operator application reads the
+ * clock twice. Calculators without metrics only check that none are set, once
+ * per evaluation.
+ *
+ * @author Kevin Zhu
+ */
+public final class CalculatorMetrics
+{
+    /** The phases of evaluating an expression. */
+    public enum Phase
+    {
+        /** Splitting the source text into tokens. */
+        LEX,
+        
+        /** Parsing the tokens into a compiled expression. */
+        PARSE,
+        
+        /** Evaluating a compiled expression. */
+        EVAL
+    }
+    
+    /** The causes of an expression being invalid. */
+    public enum ErrorCause
+    {
+        /** A token that is not valid where it appears. */
+        BAD_TOKEN,
+        
+        /** An operator without enough operands, or an empty expression. */
+        STACK_UNDERFLOW,
+        
+        /** A parenthesis without a matching one. */
+        MISMATCHED_PARENTHESIS,
+        
+        /** An operand left over once the expression is complete. */
+        EXTRA_OPERAND,
+        
+        /** An expression with too many literals or operators to compile. */
+        TOO_LARGE
+    }
+    
+    /** The count and total time of each operator, by symbol. */
+    private final ConcurrentMap<String, Timer> operators;
+    
+    /** The count and total time of each phase, by ordinal. */
+    private final Timer[] phases;
+    
+    /** The count of errors of each cause, by ordinal. */
+    private final LongAdder[] errors;
+    
+    /** The latencies of evaluations. */
+    private final LatencyHistogram latencies;
+    
+    /** Constructs a {@code CalculatorMetrics} object with nothing recorded. */
+    public CalculatorMetrics()
+    {
+        operators = new ConcurrentHashMap<>();
+        phases = new Timer[Phase.values().length];
+        for (int i = 0; i < phases.length; ++i) {
+            phases[i] = new Timer();
+        }
+        errors = new LongAdder[ErrorCause.values().length];
+        for (int i = 0; i < errors.length; ++i) {
+            errors[i] = new LongAdder();
+        }
+        latencies = new LatencyHistogram();
+    }
+    
+    /**
+     * Records that the specified operator was applied the specified number of
+     * times, taking the specified total time.
+     *
+     * @param symbol the symbol of the operator
+     * @param count  the number of times the operator was applied
+     * @param nanos  the total time spent in the operator, in nanoseconds
+     */
+    void recordOperator(String symbol, long count, long nanos)
+    {
+        Timer timer = operators.get(symbol);
+        if (timer == null) {
+            timer = operators.computeIfAbsent(symbol, key -> new Timer());
+        }
+        timer.add(count, nanos);
+    }
+    
+    /**
+     * Records that the specified phase ran once, taking the specified time.
+     *
+     * @param phase the phase that ran
+     * @param nanos the time spent in the phase, in nanoseconds
+     */
+    void recordPhase(Phase phase, long nanos)
+    {
+        phases[phase.ordinal()].add(1, nanos);
+    }
+    
+    /**
+     * Records that an invalid expression was evaluated.
+     *
+     * @param cause the cause of the expression being invalid
+     */
+    void recordError(ErrorCause cause)
+    {
+        errors[cause.ordinal()].increment();
+    }
+    
+    /**
+     * Records the latency of an evaluation.
+     *
+     * @param nanos the time the evaluation took, in nanoseconds
+     */
+    void recordLatency(long nanos)
+    {
+        latencies.record(nanos);
+    }
+    
+    /**
+     * Returns an immutable snapshot of everything recorded so far. Updates
+     * made while the snapshot is taken may be only partly included.
+     *
+     * @return an immutable snapshot of everything recorded so far
+     */
+    public MetricsSnapshot snapshot()
+    {
+        Map<String, MetricsSnapshot.Timing> operatorTimings = new TreeMap<>();
+        for (Map.Entry<String, Timer> entry : operators.entrySet()) {
+            operatorTimings.put(entry.getKey(), entry.getValue().timing());
+        }
+        Map<Phase, MetricsSnapshot.Timing> phaseTimings =
+            new EnumMap<>(Phase.class);
+        for (Phase phase : Phase.values()) {
+            phaseTimings.put(phase, phases[phase.ordinal()].timing());
+        }
+        Map<ErrorCause, Long> errorCounts = new EnumMap<>(ErrorCause.class);
+        for (ErrorCause cause : ErrorCause.values()) {
+            errorCounts.put(cause, errors[cause.ordinal()].sum());
+        }
+        return new MetricsSnapshot(operatorTimings, phaseTimings, errorCounts,
+                                   latencies.counts());
+    }
+    
+    /** Discards everything recorded so far. */
+    public void reset()
+    {
+        operators.clear();
+        for (Timer timer : phases) {
+            timer.reset();
+        }
+        for (LongAdder counter : errors) {
+            counter.reset();
+        }
+        latencies.clear();
+    }
+    
+    /** {@inheritDoc} */
+    @Override
+    public String toString()
+    {
+        return snapshot().toString();
+    }
+    
+    /** A count of events and their total time. */
+    private static final class Timer
+    {
+        /** The number of events. */
+        private final LongAdder count;
+        
+        /** The total time of the events, in nanoseconds. */
+        private final LongAdder nanos;
+        
+        /** Constructs a {@code Timer} object with no events. */
+        private Timer()
+        {
+            count = new LongAdder();
+            nanos = new LongAdder();
+        }
+        
+        /**
+         * Adds the specified number of events taking the specified time.
+         *
+         * @param count the number of events
+         * @param nanos the total time of the events, in nanoseconds
+         */
+        private void add(long count, long nanos)
+        {
+            this.count.add(count);
+            this.nanos.add(nanos);
+        }
+        
+        /** Discards all events. */
+        private void reset()
+        {
+            count.reset();
+            nanos.reset();
+        }
+        
+        /**
+         * Returns the events counted so far as a {@code Timing}.
+         *
+         * @return the events counted so far
+         */
+        private MetricsSnapshot.Timing timing()
+        {
+            return new MetricsSnapshot.Timing(count.sum(), nanos.sum());
+        }
+    }
+}
\ No newline at end of file
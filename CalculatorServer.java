@@ -0,0 +1,186 @@
+import java.io.*;
+import java.lang.reflect.*;
+import java.net.*;
+import java.nio.charset.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * The {@code CalculatorServer} class is a TCP server that evaluates
+ * expressions for local clients. Clients send one request per line, made of
+ * the notation of the expression followed by the expression itself, such as
+ * {@code "infix 1 + 2"}, and receive one line per request holding the value
+ * formatted with the configured precision, or {@code "ERROR"} if the request
+ * is invalid.
+ * <p>
+ * The calculators of the server are shared by all connections, while each
+ * connection has its own {@code EvaluationContext}, so {@code "ans"} refers to
+ * the last answer on the same connection whatever its notation. Each
+ * connection is handled on its own virtual thread when the running Java
+ * version supports them, so tens of thousands of idle clients cost little more
+ * than their sockets; on older versions, connections are handled on a cached
+ * pool of platform threads instead.
+ *
+ * @author Kevin Zhu
+ */
+public final class CalculatorServer implements Closeable
+{
+    /** The maximum number of pending connections. */
+    private static final int BACKLOG = 4096;
+    
+    /** The calculators of this server, by notation. */
+    private final Map<String, AbstractCalculator> calculators;
+    
+    /** The number of digits after the decimal point in results. */
+    private final int precision;
+    
+    /** The socket accepting connections. */
+    private final ServerSocket serverSocket;
+    
+    /** The executor running the connection handlers. */
+    private final ExecutorService executor;
+    
+    /**
+     * Constructs a {@code CalculatorServer} object listening on the specified
+     * port of the loopback address.
+     *
+     * @param  port        the port to listen on, or 0 for any free port
+     * @param  calculators the calculators to evaluate with, by notation
+     * @param  precision   the number of digits after the decimal point in
+     *                     results
+     * @throws IOException if the port cannot be listened on
+     */
+    public CalculatorServer(int port,
+                            Map<String, AbstractCalculator> calculators,
+                            int precision) throws IOException
+    {
+        this.calculators = Map.copyOf(calculators);
+        this.precision = precision;
+        serverSocket = new ServerSocket(port, BACKLOG,
+                                        InetAddress.getLoopbackAddress());
+        executor = newExecutor();
+    }
+    
+    /**
+     * Returns the port this server is listening on.
+     *
+     * @return the port this server is listening on
+     */
+    public int getPort()
+    {
+        return serverSocket.getLocalPort();
+    }
+    
+    /**
+     * Accepts connections and handles each on its own thread until this server
+     * is closed.
+     *
+     * @throws IOException if an I/O error occurs other than closing
+     */
+    public void serve() throws IOException
+    {
+        while (!serverSocket.isClosed()) {
+            Socket client;
+            try {
+                client = serverSocket.accept();
+            } catch (SocketException e) {
+                if (serverSocket.isClosed()) {
+                    return; // closed while waiting
+                }
+                throw e;
+            }
+            executor.execute(() -> handle(client));
+        }
+    }
+    
+    /**
+     * Stops accepting connections and closes this server. Connections being
+     * handled are left to finish.
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    @Override
+    public void close() throws IOException
+    {
+        serverSocket.close();
+        executor.shutdown();
+    }
+    
+    /**
+     * Answers the requests of the specified client until it disconnects.
+     * Responses are flushed whenever no further request has arrived yet, so
+     * clients sending many requests at once get their responses in batches.
+     *
+     * @param client the socket connected to the client
+     */
+    private void handle(Socket client)
+    {
+        EvaluationContext context = new EvaluationContext();
+        try (client;
+             BufferedReader in = new BufferedReader(new InputStreamReader(
+                     client.getInputStream(), StandardCharsets.UTF_8));
+             BufferedWriter out = new BufferedWriter(new OutputStreamWriter(
+                     client.getOutputStream(), StandardCharsets.UTF_8))) {
+            DecimalFormatter formatter = new DecimalFormatter(precision);
+            for (String line; (line = in.readLine()) != null; ) {
+                double ans = evaluate(line.trim().toLowerCase(), context);
+                if (Double.isNaN(ans)) {
+                    out.write("ERROR");
+                } else {
+                    formatter.write(ans, out);
+                }
+                out.newLine();
+                if (!in.ready()) {
+                    out.flush();
+                }
+            }
+        } catch (IOException e) {
+            // client went away; nothing to report it to
+        }
+    }
+    
+    /**
+     * Evaluates and returns the value of the specified request in the
+     * specified context, or {@code Double.NaN} if the request is invalid.
+     *
+     * @param  request the notation followed by the expression
+     * @param  context the context of the connection
+     * @return         the value of the request, or {@code Double.NaN} if the
+     *                 request is invalid
+     */
+    private double evaluate(String request, EvaluationContext context)
+    {
+        int space = request.indexOf(' ');
+        AbstractCalculator calculator = space < 0 ?
+                null : calculators.get(request.substring(0, space));
+        if (calculator == null) {
+            context.setAnswer(Double.NaN);
+            return Double.NaN;
+        }
+        return calculator.evaluate(request.substring(space + 1), context);
+    }
+    
+    /**
+     * Returns an executor that runs each task on a new virtual thread if the
+     * running Java version supports them, or on a cached pool of platform
+     * threads otherwise. Virtual threads are looked up reflectively so that
+     * this class still compiles and runs on Java versions without them.
+     *
+     * @return an executor running each task on its own thread
+     */
+    private static ExecutorService newExecutor()
+    {
+        try {
+            Method factory = Executors.class.getMethod(
+                    "newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException |
+                 UnsupportedOperationException e) {
+            return Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(runnable);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,449 @@
+import java.util.*;
+import java.util.function.*;
+
+/**
+ * The {@code CalculatorSettings} class holds the configuration of a calculator
+ * that determines the value of an expression: its operator mappings, operator
+ * precedences and associativity, and angle units, along with the tables of
+ * resolved operators derived from them, and the optimizations applied when
+ * compiling expressions.
+ * {@code CalculatorSettings} objects are immutable, so a calculator can share
+ * its current settings with every thread evaluating expressions and replace
+ * them as a whole when they change.
+ * <p>
+ * Each operator symbol has an integer id, which indexes the resolved unary and
+ * binary {@code Operator} objects for the symbol. Parsers look up operator
+ * tokens to get their ids and report operators through the {@code apply}
+ * method, so evaluating an expression needs no further lookups. The
+ * precedence and associativity of each operator are likewise packed into a
+ * single rank by id, so that infix parsers compare two operators with two
+ * array reads.
+ *
+ * @author Kevin Zhu
+ */
+public final class CalculatorSettings
+{
+    /** The operator id returned for tokens that are not operators. */
+    public static final int NO_OPERATOR = -1;
+    
+    /**
+     * The precedence of operators without one, that of the default unary
+     * operators.
+     */
+    public static final int DEFAULT_PRECEDENCE = 4;
+    
+    /** The largest magnitude of a precedence, so that ranks cannot overflow. */
+    public static final int MAX_PRECEDENCE = Integer.MAX_VALUE >> 1;
+    
+    /** Internal constant for allowing different angle units. */
+    private static final Set<String> TRIG_OPS =
+        Set.of("sin", "cos", "tan", "sec", "csc", "cot");
+    
+    /** Internal constant for allowing different angle units. */
+    private static final Set<String> INV_TRIG_OPS =
+        Set.of("asin", "acos", "atan", "asec", "acsc", "acot");
+    
+    /** The map from unary operators to their associated functions. */
+    private final Map<String, DoubleUnaryOperator> unaryOps;
+    
+    /** The map from binary operators to their associated functions. */
+    private final Map<String, DoubleBinaryOperator> binaryOps;
+    
+    /** The map from operators to their precedence values. */
+    private final Map<String, Integer> opPrecedences;
+    
+    /** The map from operators to their associativity values. */
+    private final Map<String, Boolean> opAssociativity;
+    
+    /** The angle units of these settings. */
+    private final AbstractCalculator.AngleUnits angleUnits;
+    
+    /** The optimizations applied when compiling expressions. */
+    private final AbstractCalculator.Optimization optimization;
+    
+    /** The table of all operators, mapping each symbol to its id. */
+    private final SymbolTable<Integer> symbols;
+    
+    /** The symbols of all operators, by id. */
+    private final String[] operatorSymbols;
+    
+    /** The resolved unary operators, by id, or {@code null} if not unary. */
+    private final Operator[] unaryOperators;
+    
+    /** The resolved binary operators, by id, or {@code null} if not binary. */
+    private final Operator[] binaryOperators;
+    
+    /** The packed precedence and associativity of the operators, by id. */
+    private final int[] ranks;
+    
+    /**
+     * Constructs a {@code CalculatorSettings} object with the specified
+     * operator mappings, operator precedences and associativity, which must
+     * all be unmodifiable, angle units and optimizations.
+     *
+     * @param unaryOps        the map from unary operators to their associated
+     *                        functions
+     * @param binaryOps       the map from binary operators to their
+     *                        associated functions
+     * @param opPrecedences   the map from operators to their precedence
+     *                        values, each at most {@code MAX_PRECEDENCE} in
+     *                        magnitude
+     * @param opAssociativity the map from operators to their associativity
+     *                        values ({@code true} for left associativity,
+     *                        {@code false} for right)
+     * @param angleUnits      the angle units
+     * @param optimization    the optimizations applied when compiling
+     *                        expressions
+     */
+    CalculatorSettings(Map<String, DoubleUnaryOperator> unaryOps,
+                       Map<String, DoubleBinaryOperator> binaryOps,
+                       Map<String, Integer> opPrecedences,
+                       Map<String, Boolean> opAssociativity,
+                       AbstractCalculator.AngleUnits angleUnits,
+                       AbstractCalculator.Optimization optimization)
+    {
+        this.unaryOps = unaryOps;
+        this.binaryOps = binaryOps;
+        this.opPrecedences = opPrecedences;
+        this.opAssociativity = opAssociativity;
+        this.angleUnits = angleUnits;
+        this.optimization = optimization;
+        Set<String> keys = new TreeSet<>(unaryOps.keySet());
+        keys.addAll(binaryOps.keySet());
+        boolean degrees = angleUnits == AbstractCalculator.AngleUnits.DEGREES;
+        Map<String, Integer> ids = new HashMap<>();
+        operatorSymbols = keys.toArray(new String[0]);
+        unaryOperators = new Operator[operatorSymbols.length];
+        binaryOperators = new Operator[operatorSymbols.length];
+        ranks = new int[operatorSymbols.length];
+        for (int id = 0; id < operatorSymbols.length; ++id) {
+            String operator = operatorSymbols[id];
+            ids.put(operator, id);
+            int precedence =
+                opPrecedences.getOrDefault(operator, DEFAULT_PRECEDENCE);
+            boolean left = opAssociativity.getOrDefault(operator, false);
+            ranks[id] = precedence << 1 | (left ? 0 : 1);
+            if (unaryOps.containsKey(operator)) {
+                unaryOperators[id] = new Operator(operator,
+                        unaryOps.get(operator),
+                        degrees && TRIG_OPS.contains(operator),
+                        degrees && INV_TRIG_OPS.contains(operator));
+            }
+            if (binaryOps.containsKey(operator)) {
+                binaryOperators[id] = new Operator(operator,
+                                                   binaryOps.get(operator));
+            }
+        }
+        symbols = new SymbolTable<>(ids);
+    }
+    
+    /**
+     * Returns settings equal to these settings except for the specified map
+     * from unary operators to their associated functions.
+     *
+     * @param  unaryOps the map from unary operators to their associated
+     *                  functions
+     * @return          settings with the specified unary operator map
+     */
+    CalculatorSettings withUnaryOps(Map<String, DoubleUnaryOperator> unaryOps)
+    {
+        return new CalculatorSettings(
+                Collections.unmodifiableMap(new HashMap<>(unaryOps)),
+                binaryOps, opPrecedences, opAssociativity, angleUnits,
+                optimization);
+    }
+    
+    /**
+     * Returns settings equal to these settings except for the specified map
+     * from binary operators to their associated functions.
+     *
+     * @param  binaryOps the map from binary operators to their associated
+     *                   functions
+     * @return           settings with the specified binary operator map
+     */
+    CalculatorSettings withBinaryOps(
+            Map<String, DoubleBinaryOperator> binaryOps)
+    {
+        return new CalculatorSettings(unaryOps,
+                Collections.unmodifiableMap(new HashMap<>(binaryOps)),
+                opPrecedences, opAssociativity, angleUnits, optimization);
+    }
+    
+    /**
+     * Returns settings equal to these settings except for the specified map
+     * from operators to their precedence values.
+     *
+     * @param  opPrecedences the map from operators to their precedence
+     *                       values, each at most {@code MAX_PRECEDENCE} in
+     *                       magnitude
+     * @return               settings with the specified precedence map
+     */
+    CalculatorSettings withOpPrecedences(Map<String, Integer> opPrecedences)
+    {
+        return new CalculatorSettings(unaryOps, binaryOps,
+                Collections.unmodifiableMap(new HashMap<>(opPrecedences)),
+                opAssociativity, angleUnits, optimization);
+    }
+    
+    /**
+     * Returns settings equal to these settings except for the specified map
+     * from operators to their associativity values.
+     *
+     * @param  opAssociativity the map from operators to their associativity
+     *                         values ({@code true} for left associativity,
+     *                         {@code false} for right)
+     * @return                 settings with the specified associativity map
+     */
+    CalculatorSettings withOpAssociativity(
+            Map<String, Boolean> opAssociativity)
+    {
+        return new CalculatorSettings(unaryOps, binaryOps, opPrecedences,
+                Collections.unmodifiableMap(new HashMap<>(opAssociativity)),
+                angleUnits, optimization);
+    }
+    
+    /**
+     * Returns settings equal to these settings except for the specified angle
+     * units.
+     *
+     * @param  angleUnits the angle units
+     * @return            settings with the specified angle units
+     */
+    CalculatorSettings withAngleUnits(AbstractCalculator.AngleUnits angleUnits)
+    {
+        return angleUnits == this.angleUnits ? this :
+               new CalculatorSettings(unaryOps, binaryOps, opPrecedences,
+                                      opAssociativity, angleUnits,
+                                      optimization);
+    }
+    
+    /**
+     * Returns settings equal to these settings except for the specified
+     * optimizations.
+     *
+     * @param  optimization the optimizations applied when compiling
+     *                      expressions
+     * @return              settings with the specified optimizations
+     */
+    CalculatorSettings withOptimization(
+            AbstractCalculator.Optimization optimization)
+    {
+        return optimization == this.optimization ? this :
+               new CalculatorSettings(unaryOps, binaryOps, opPrecedences,
+                                      opAssociativity, angleUnits,
+                                      optimization);
+    }
+    
+    /**
+     * Returns an unmodifiable view of the map from unary operators to their
+     * associated functions.
+     *
+     * @return an unmodifiable view of the map from unary operators to their
+     *         associated functions
+     */
+    public Map<String, DoubleUnaryOperator> getUnaryOps()
+    {
+        return unaryOps;
+    }
+    
+    /**
+     * Returns an unmodifiable view of the map from binary operators to their
+     * associated functions.
+     *
+     * @return an unmodifiable view of the map from binary operators to their
+     *         associated functions
+     */
+    public Map<String, DoubleBinaryOperator> getBinaryOps()
+    {
+        return binaryOps;
+    }
+    
+    /**
+     * Returns an unmodifiable view of the map from operators to their
+     * precedence values. Operators missing from it have {@code
+     * DEFAULT_PRECEDENCE}.
+     *
+     * @return an unmodifiable view of the map from operators to their
+     *         precedence values
+     */
+    public Map<String, Integer> getOpPrecedences()
+    {
+        return opPrecedences;
+    }
+    
+    /**
+     * Returns an unmodifiable view of the map from operators to their
+     * associativity values ({@code true} for left associativity, {@code
+     * false} for right). Operators missing from it are right-associative.
+     *
+     * @return an unmodifiable view of the map from operators to their
+     *         associativity values
+     */
+    public Map<String, Boolean> getOpAssociativity()
+    {
+        return opAssociativity;
+    }
+    
+    /**
+     * Returns the angle units of these settings.
+     *
+     * @return the angle units of these settings
+     */
+    public AbstractCalculator.AngleUnits getAngleUnits()
+    {
+        return angleUnits;
+    }
+    
+    /**
+     * Returns the optimizations applied when compiling expressions under
+     * these settings.
+     *
+     * @return the optimizations applied when compiling expressions
+     */
+    public AbstractCalculator.Optimization getOptimization()
+    {
+        return optimization;
+    }
+    
+    /**
+     * Returns the table of all operators, mapping each symbol to its id. It
+     * is rebuilt whenever the operator mappings change.
+     *
+     * @return the table of all operators, mapping each symbol to its id
+     */
+    public SymbolTable<Integer> symbols()
+    {
+        return symbols;
+    }
+    
+    /**
+     * Returns the id of the operator matching the current token of the
+     * specified lexer, or {@code NO_OPERATOR} if the token is not a supported
+     * operator.
+     *
+     * @param  lexer the lexer positioned at the token to look up
+     * @return       the id of the operator matching the current token of the
+     *               lexer, or {@code NO_OPERATOR} if the token is not a
+     *               supported operator
+     */
+    public int operator(ExpressionLexer lexer)
+    {
+        Integer operator = lexer.lookup(symbols);
+        return operator == null ? NO_OPERATOR : operator;
+    }
+    
+    /**
+     * Returns the id of the specified operator, or {@code NO_OPERATOR} if it
+     * is not a supported operator.
+     *
+     * @param  operator the symbol of the operator
+     * @return          the id of the specified operator, or {@code
+     *                  NO_OPERATOR} if it is not a supported operator
+     */
+    public int operator(String operator)
+    {
+        Integer id = symbols.get(operator, 0, operator.length());
+        return id == null ? NO_OPERATOR : id;
+    }
+    
+    /**
+     * Returns the symbol of the operator with the specified id, which is its
+     * key in the operator maps.
+     *
+     * @param  operator the id of the operator
+     * @return          the symbol of the operator with the specified id
+     */
+    public String symbol(int operator)
+    {
+        return operatorSymbols[operator];
+    }
+    
+    /**
+     * Returns {@code true} if the operator with the specified id is a unary
+     * operator; {@code false} otherwise.
+     *
+     * @param  operator the id of the operator
+     * @return          {@code true} if the operator with the specified id is a
+     *                  unary operator; {@code false} otherwise
+     */
+    public boolean isUnary(int operator)
+    {
+        return unaryOperators[operator] != null;
+    }
+    
+    /**
+     * Returns {@code true} if the operator with the specified id is a binary
+     * operator; {@code false} otherwise.
+     *
+     * @param  operator the id of the operator
+     * @return          {@code true} if the operator with the specified id is a
+     *                  binary operator; {@code false} otherwise
+     */
+    public boolean isBinary(int operator)
+    {
+        return binaryOperators[operator] != null;
+    }
+    
+    /**
+     * Returns the resolved unary operator with the specified id, or {@code
+     * null} if it is not a unary operator.
+     *
+     * @param  operator the id of the operator
+     * @return          the resolved unary operator with the specified id, or
+     *                  {@code null} if it is not a unary operator
+     */
+    public Operator unary(int operator)
+    {
+        return unaryOperators[operator];
+    }
+    
+    /**
+     * Returns the resolved binary operator with the specified id, or {@code
+     * null} if it is not a binary operator.
+     *
+     * @param  operator the id of the operator
+     * @return          the resolved binary operator with the specified id, or
+     *                  {@code null} if it is not a binary operator
+     */
+    public Operator binary(int operator)
+    {
+        return binaryOperators[operator];
+    }
+    
+    /**
+     * Returns the rank of the operator with the specified id: its precedence
+     * shifted left by one bit, with the low bit set if it is
+     * right-associative. An operator may be placed above another on an infix
+     * operator stack exactly when its rank is greater than the rank of the
+     * other with the low bit cleared.
+     *
+     * @param  operator the id of the operator
+     * @return          the rank of the operator with the specified id
+     */
+    public int rank(int operator)
+    {
+        return ranks[operator];
+    }
+    
+    /**
+     * Reports the operator with the specified id to the specified sink if
+     * there are enough operands for it, returning {@code false} if there are
+     * not. An operator that is both unary and binary is treated as unary.
+     *
+     * @param  operator the id of the operator to report
+     * @param  sink     the sink to report the operator to
+     * @return          {@code true} if the operator was reported; {@code
+     *                  false} if there were not enough operands for it
+     */
+    public boolean apply(int operator, ExpressionSink sink)
+    {
+        if (unaryOperators[operator] != null && sink.size() > 0) {
+            sink.unary(unaryOperators[operator]);
+        } else if (binaryOperators[operator] != null && sink.size() > 1) {
+            sink.binary(binaryOperators[operator]);
+        } else {
+            return false;
+        }
+        return true;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,700 @@
+import java.util.*;
+
+/**
+ * The {@code CompiledExpression} class represents an expression that has
+ * already been parsed by a calculator. It stores the expression as a flat
+ * program of instructions in postfix order, with numeric literals and
+ * resolved {@code Operator} objects held in side tables, so evaluating it
+ * involves no tokenizing, parsing or operator lookups.
+ * <p>
+ * The angle units of the calculator that compiled an expression are fixed
+ * at compile time, but {@code "ans"} is read each time the expression is
+ * evaluated. An expression may also refer to variables declared when it was
+ * compiled. Each variable is resolved to a slot index at compile time, and
+ * its value is read from that index of a {@code double[]} of bindings each
+ * time the expression is evaluated. {@code CompiledExpression} objects are
+ * immutable and can be obtained through the {@code compile} method of {@code
+ * AbstractCalculator}.
+ * <p>
+ * By default, compiled expressions are run by a small interpreter, whose
+ * opcodes are numbered densely so that its dispatch compiles to a single
+ * table jump. The default arithmetic operators and the {@code "abs"}, {@code
+ * "sqrt"} and {@code "^2"} functions have opcodes of their own, computed
+ * inline; any other operator is called through its {@code Operator} object.
+ * An expression thus takes one {@code int} per token and one {@code double}
+ * per literal, so millions of them fit in memory at once. The {@code
+ * toBytecode} method translates an expression into a JVM hidden class
+ * instead, which is worth the one-time cost for expressions evaluated many
+ * times.
+ *
+ * @author Kevin Zhu
+ */
+public final class CompiledExpression
+{
+    /** Instruction pushing a constant; the argument indexes the constants. */
+    static final int CONSTANT = 0;
+    
+    /** Instruction pushing the last answer. */
+    static final int ANSWER = 1;
+    
+    /** Instruction applying a unary operator; the argument indexes it. */
+    static final int UNARY = 2;
+    
+    /** Instruction applying a binary operator; the argument indexes it. */
+    static final int BINARY = 3;
+    
+    /** Instruction pushing a variable; the argument is its slot. */
+    static final int VARIABLE = 4;
+    
+    /** Instruction adding with the default {@code "+"} operator. */
+    static final int ADD = 5;
+    
+    /** Instruction subtracting with the default {@code "-"} operator. */
+    static final int SUBTRACT = 6;
+    
+    /** Instruction multiplying with the default {@code "*"} operator. */
+    static final int MULTIPLY = 7;
+    
+    /** Instruction dividing with the default {@code "/"} operator. */
+    static final int DIVIDE = 8;
+    
+    /** Instruction taking the remainder with the default {@code "%"}. */
+    static final int REMAINDER = 9;
+    
+    /** Instruction raising to a power with the default {@code "^"}. */
+    static final int POWER = 10;
+    
+    /**
+     * Instruction taking the absolute value with the default {@code "abs"};
+     * this and the later opcodes are unary.
+     */
+    static final int ABS = 11;
+    
+    /** Instruction taking the square root with the default {@code "sqrt"}. */
+    static final int SQRT = 12;
+    
+    /** Instruction squaring with the specialized power {@code "^2"}. */
+    static final int SQUARE = 13;
+    
+    /** The number of low bits of an instruction holding its opcode. */
+    static final int OPCODE_BITS = 8;
+    
+    /** Mask extracting the opcode of an instruction. */
+    static final int OPCODE_MASK = (1 << OPCODE_BITS) - 1;
+    
+    /** The largest argument the rest of the bits of an instruction hold. */
+    static final int MAX_ARGUMENT = -1 >>> OPCODE_BITS;
+    
+    /** The compiled form of invalid expressions, by cause of error. */
+    private static final CompiledExpression[] INVALID = invalidExpressions();
+    
+    /** The number of rows evaluated together by the batch evaluator. */
+    private static final int BLOCK_SIZE = 1024;
+    
+    /** The bindings used when evaluating without variables. */
+    private static final double[] NO_BINDINGS = new double[0];
+    
+    /** The source text of this expression. */
+    private final String source;
+    
+    /** The names of the variables of this expression, by slot. */
+    private final String[] variables;
+    
+    /** The instructions of this expression, or {@code null} if invalid. */
+    private final int[] code;
+    
+    /** The constants referenced by the instructions. */
+    private final double[] constants;
+    
+    /** The operators referenced by the instructions. */
+    private final Operator[] operators;
+    
+    /** The deepest the operand stack gets while evaluating. */
+    private final int maxStack;
+    
+    /** The generated code evaluating this expression, or {@code null}. */
+    private final Kernel kernel;
+    
+    /** The cause of this expression being invalid, or {@code null}. */
+    private final CalculatorMetrics.ErrorCause error;
+    
+    /**
+     * Constructs a {@code CompiledExpression} object from the specified parts,
+     * which become owned by the new object.
+     *
+     * @param source    the source text of the expression
+     * @param variables the names of the variables, by slot
+     * @param code      the instructions, or {@code null} if invalid
+     * @param constants the constants referenced by the instructions
+     * @param operators the operators referenced by the instructions
+     * @param maxStack  the deepest the operand stack gets while evaluating
+     */
+    CompiledExpression(String source, String[] variables, int[] code,
+                       double[] constants, Operator[] operators, int maxStack)
+    {
+        this.source = source;
+        this.variables = variables;
+        this.code = code;
+        this.constants = constants;
+        this.operators = operators;
+        this.maxStack = maxStack;
+        kernel = null;
+        error = null;
+    }
+    
+    /**
+     * Constructs an invalid {@code CompiledExpression} object with the
+     * specified cause of error.
+     *
+     * @param error the cause of the expression being invalid
+     */
+    private CompiledExpression(CalculatorMetrics.ErrorCause error)
+    {
+        source = "";
+        variables = new String[0];
+        code = null;
+        constants = null;
+        operators = null;
+        maxStack = 0;
+        kernel = null;
+        this.error = error;
+    }
+    
+    /**
+     * Constructs a {@code CompiledExpression} object sharing the parts of the
+     * specified expression, evaluated by the specified generated code.
+     *
+     * @param expression the expression to share the parts of
+     * @param kernel     the generated code evaluating the expression
+     */
+    private CompiledExpression(CompiledExpression expression, Kernel kernel)
+    {
+        source = expression.source;
+        variables = expression.variables;
+        code = expression.code;
+        constants = expression.constants;
+        operators = expression.operators;
+        maxStack = expression.maxStack;
+        error = expression.error;
+        this.kernel = kernel;
+    }
+    
+    /**
+     * Returns the compiled form of invalid expressions with the specified
+     * cause of error, which always evaluates to {@code Double.NaN}.
+     *
+     * @param  cause the cause of the expression being invalid
+     * @return       the compiled form of invalid expressions with the
+     *               specified cause
+     */
+    static CompiledExpression invalid(CalculatorMetrics.ErrorCause cause)
+    {
+        return INVALID[cause.ordinal()];
+    }
+    
+    /**
+     * Returns {@code true} if this expression was valid when compiled; {@code
+     * false} otherwise. Invalid expressions always evaluate to {@code
+     * Double.NaN}.
+     *
+     * @return {@code true} if this expression was valid when compiled; {@code
+     *         false} otherwise
+     */
+    public boolean isValid()
+    {
+        return code != null;
+    }
+    
+    /**
+     * Returns the names of the variables of this expression, in slot order.
+     *
+     * @return the names of the variables of this expression, in slot order
+     */
+    public List<String> getVariables()
+    {
+        return List.of(variables);
+    }
+    
+    /**
+     * Returns an equivalent expression evaluated by a generated JVM hidden
+     * class rather than by the interpreter, or this expression if it is
+     * invalid, already generated or too large to fit in a single JVM method.
+     * The generated class calls the default operator functions of {@code
+     * AbstractCalculator} directly and produces the same results as the
+     * interpreter, bit for bit.
+     *
+     * @return an equivalent expression evaluated by a generated hidden class,
+     *         or this expression if it cannot be generated
+     */
+    public CompiledExpression toBytecode()
+    {
+        if (code == null || kernel != null) {
+            return this;
+        }
+        Kernel kernel = BytecodeGenerator.generate(code, constants, operators,
+                                                   maxStack);
+        return kernel == null ? this : new CompiledExpression(this, kernel);
+    }
+    
+    /**
+     * Evaluates and returns the value of this expression, with {@code "ans"}
+     * taking the specified value, or {@code Double.NaN} if this expression is
+     * invalid or produces a not-a-number value.
+     *
+     * @param  answer                   the value of {@code "ans"}
+     * @return                          the value of this expression, or {@code
+     *                                  Double.NaN} if this expression is
+     *                                  invalid or produces a not-a-number value
+     * @throws IllegalArgumentException if this expression has variables
+     */
+    public double evaluate(double answer)
+    {
+        return evaluate(answer, NO_BINDINGS);
+    }
+    
+    /**
+     * Evaluates and returns the value of this expression, with {@code "ans"}
+     * and the variables taking the specified values, or {@code Double.NaN} if
+     * this expression is invalid or produces a not-a-number value.
+     *
+     * @param  answer                   the value of {@code "ans"}
+     * @param  bindings                 the values of the variables, by slot
+     * @return                          the value of this expression, or {@code
+     *                                  Double.NaN} if this expression is
+     *                                  invalid or produces a not-a-number value
+     * @throws IllegalArgumentException if there are fewer bindings than
+     *                                  variables
+     */
+    public double evaluate(double answer, double[] bindings)
+    {
+        return evaluate(answer, bindings, new double[maxStack]);
+    }
+    
+    /**
+     * Evaluates and returns the value of this expression using the specified
+     * array as the operand stack, which must hold at least {@code
+     * maxStack()} elements.
+     *
+     * @param  answer                   the value of {@code "ans"}
+     * @param  bindings                 the values of the variables, by slot
+     * @param  stack                    the operand stack
+     * @return                          the value of this expression, or {@code
+     *                                  Double.NaN} if this expression is
+     *                                  invalid or produces a not-a-number value
+     * @throws IllegalArgumentException if there are fewer bindings than
+     *                                  variables
+     */
+    double evaluate(double answer, double[] bindings, double[] stack)
+    {
+        int[] code = this.code; // local copies for the hot loop
+        if (code == null) {
+            return Double.NaN;
+        } else if (bindings.length < variables.length) {
+            throw new IllegalArgumentException("expected " + variables.length +
+                    " bindings, got " + bindings.length);
+        }
+        Operator[] operators = this.operators;
+        if (kernel != null) {
+            return kernel.evaluate(answer, bindings, operators);
+        }
+        double[] constants = this.constants;
+        int top = -1;
+        for (int instruction : code) {
+            int argument = instruction >>> OPCODE_BITS;
+            switch (instruction & OPCODE_MASK) {
+                case CONSTANT:
+                    stack[++top] = constants[argument];
+                    break;
+                case ANSWER:
+                    stack[++top] = answer;
+                    break;
+                case UNARY:
+                    stack[top] = operators[argument].apply(stack[top]);
+                    break;
+                case BINARY:
+                    --top;
+                    stack[top] = operators[argument].apply(stack[top],
+                                                           stack[top + 1]);
+                    break;
+                case VARIABLE:
+                    stack[++top] = bindings[argument];
+                    break;
+                case ADD:
+                    --top;
+                    stack[top] += stack[top + 1];
+                    break;
+                case SUBTRACT:
+                    --top;
+                    stack[top] -= stack[top + 1];
+                    break;
+                case MULTIPLY:
+                    --top;
+                    stack[top] *= stack[top + 1];
+                    break;
+                case DIVIDE:
+                    --top;
+                    stack[top] /= stack[top + 1];
+                    break;
+                case REMAINDER:
+                    --top;
+                    stack[top] %= stack[top + 1];
+                    break;
+                case POWER:
+                    --top;
+                    stack[top] = Math.pow(stack[top], stack[top + 1]);
+                    break;
+                case ABS:
+                    stack[top] = Math.abs(stack[top]);
+                    break;
+                case SQRT:
+                    stack[top] = Math.sqrt(stack[top]);
+                    break;
+                default: // SQUARE
+                    stack[top] *= stack[top];
+                    break;
+            }
+        }
+        return stack[0];
+    }
+    
+    /**
+     * Evaluates and returns the value of this expression just as {@code
+     * evaluate(answer, bindings, stack)} does, always with the interpreter,
+     * and records the number of times each operator was applied and the time
+     * spent in it. The timings array is scratch space holding at least twice
+     * {@code operatorCount()} elements.
+     *
+     * @param  answer                   the value of {@code "ans"}
+     * @param  bindings                 the values of the variables, by slot
+     * @param  stack                    the operand stack
+     * @param  metrics                  the metrics to record operators in
+     * @param  timings                  the scratch space for totalling
+     *                                  operator counts and times
+     * @return                          the value of this expression, or {@code
+     *                                  Double.NaN} if this expression is
+     *                                  invalid or produces a not-a-number value
+     * @throws IllegalArgumentException if there are fewer bindings than
+     *                                  variables
+     */
+    double evaluate(double answer, double[] bindings, double[] stack,
+                    CalculatorMetrics metrics, long[] timings)
+    {
+        int[] code = this.code;
+        if (code == null) {
+            return Double.NaN;
+        } else if (bindings.length < variables.length) {
+            throw new IllegalArgumentException("expected " + variables.length +
+                    " bindings, got " + bindings.length);
+        }
+        Operator[] operators = this.operators;
+        double[] constants = this.constants;
+        Arrays.fill(timings, 0, 2 * operators.length, 0);
+        int top = -1;
+        for (int instruction : code) {
+            int argument = instruction >>> OPCODE_BITS;
+            int opcode = instruction & OPCODE_MASK;
+            switch (opcode) {
+                case CONSTANT:
+                    stack[++top] = constants[argument];
+                    continue;
+                case ANSWER:
+                    stack[++top] = answer;
+                    continue;
+                case VARIABLE:
+                    stack[++top] = bindings[argument];
+                    continue;
+                default: // an operator, applied below
+                    break;
+            }
+            long start = System.nanoTime();
+            if (isUnary(opcode)) {
+                stack[top] = operators[argument].apply(stack[top]);
+            } else {
+                --top;
+                stack[top] = operators[argument].apply(stack[top],
+                                                       stack[top + 1]);
+            }
+            timings[2 * argument + 1] += System.nanoTime() - start;
+            ++timings[2 * argument];
+        }
+        for (int i = 0; i < operators.length; ++i) {
+            if (timings[2 * i] > 0) {
+                metrics.recordOperator(operators[i].symbol(), timings[2 * i],
+                                       timings[2 * i + 1]);
+            }
+        }
+        return stack[0];
+    }
+    
+    /**
+     * Evaluates this expression once for each row of the specified columns,
+     * with {@code "ans"} taking the specified value, and stores the values in
+     * the specified array. The value for row {@code i} is the value {@code
+     * evaluate} would return with element {@code i} of each column as the
+     * bindings, and {@code Double.NaN} for every row if this expression is
+     * invalid.
+     * <p>
+     * Rows are evaluated in blocks, one instruction at a time across the
+     * whole block. The default arithmetic operators and the {@code "abs"} and
+     * {@code "sqrt"} functions run as simple loops over primitive arrays,
+     * which the JIT compiler turns into SIMD instructions where the hardware
+     * has them. Any other operator is applied to one row at a time.
+     *
+     * @param  answer                   the value of {@code "ans"}
+     * @param  columns                  the values of the variables, by slot,
+     *                                  each holding one value per row
+     * @param  results                  the array to store the value of each
+     *                                  row in
+     * @throws IllegalArgumentException if there are fewer columns than
+     *                                  variables, or a column is shorter than
+     *                                  the results array
+     */
+    public void evaluate(double answer, double[][] columns, double[] results)
+    {
+        int rows = results.length;
+        if (columns.length < variables.length) {
+            throw new IllegalArgumentException("expected " + variables.length +
+                    " columns, got " + columns.length);
+        }
+        for (int i = 0; i < variables.length; ++i) {
+            if (columns[i].length < rows) {
+                throw new IllegalArgumentException("expected " + rows +
+                        " rows in column " + i + ", got " + columns[i].length);
+            }
+        }
+        if (code == null) {
+            Arrays.fill(results, Double.NaN);
+            return;
+        }
+        double[][] stack = new double[maxStack][Math.min(rows, BLOCK_SIZE)];
+        for (int from = 0; from < rows; from += BLOCK_SIZE) {
+            int length = Math.min(rows - from, BLOCK_SIZE);
+            int top = -1;
+            for (int instruction : code) {
+                int argument = instruction >>> OPCODE_BITS;
+                int opcode = instruction & OPCODE_MASK;
+                switch (opcode) {
+                    case CONSTANT:
+                        Arrays.fill(stack[++top], 0, length,
+                                    constants[argument]);
+                        break;
+                    case ANSWER:
+                        Arrays.fill(stack[++top], 0, length, answer);
+                        break;
+                    case VARIABLE:
+                        System.arraycopy(columns[argument], from,
+                                         stack[++top], 0, length);
+                        break;
+                    default:
+                        if (isUnary(opcode)) {
+                            apply(opcode, operators[argument], stack[top],
+                                  length);
+                        } else {
+                            --top;
+                            apply(opcode, operators[argument], stack[top],
+                                  stack[top + 1], length);
+                        }
+                        break;
+                }
+            }
+            System.arraycopy(stack[0], 0, results, from, length);
+        }
+    }
+    
+    /**
+     * Applies the specified unary operator to the first {@code length}
+     * elements of the specified array in place.
+     *
+     * @param opcode   the opcode of the instruction applying the operator
+     * @param operator the operator to apply
+     * @param operands the operands, replaced by the results
+     * @param length   the number of operands
+     */
+    private static void apply(int opcode, Operator operator,
+                              double[] operands, int length)
+    {
+        if (opcode == ABS) {
+            for (int i = 0; i < length; ++i) {
+                operands[i] = Math.abs(operands[i]);
+            }
+        } else if (opcode == SQRT) {
+            for (int i = 0; i < length; ++i) {
+                operands[i] = Math.sqrt(operands[i]);
+            }
+        } else if (opcode == SQUARE) {
+            for (int i = 0; i < length; ++i) {
+                operands[i] *= operands[i];
+            }
+        } else {
+            for (int i = 0; i < length; ++i) {
+                operands[i] = operator.apply(operands[i]);
+            }
+        }
+    }
+    
+    /**
+     * Applies the specified binary operator to the first {@code length}
+     * elements of the specified arrays, storing the results in the first
+     * array.
+     *
+     * @param opcode    the opcode of the instruction applying the operator
+     * @param operator  the operator to apply
+     * @param operands1 the first operands, replaced by the results
+     * @param operands2 the second operands
+     * @param length    the number of operands in each array
+     */
+    private static void apply(int opcode, Operator operator,
+                              double[] operands1, double[] operands2,
+                              int length)
+    {
+        if (opcode == ADD) {
+            for (int i = 0; i < length; ++i) {
+                operands1[i] += operands2[i];
+            }
+        } else if (opcode == SUBTRACT) {
+            for (int i = 0; i < length; ++i) {
+                operands1[i] -= operands2[i];
+            }
+        } else if (opcode == MULTIPLY) {
+            for (int i = 0; i < length; ++i) {
+                operands1[i] *= operands2[i];
+            }
+        } else if (opcode == DIVIDE) {
+            for (int i = 0; i < length; ++i) {
+                operands1[i] /= operands2[i];
+            }
+        } else {
+            for (int i = 0; i < length; ++i) {
+                operands1[i] = operator.apply(operands1[i], operands2[i]);
+            }
+        }
+    }
+    
+    /**
+     * Returns the opcode of the instruction applying the specified operator:
+     * the opcode of its own if the operator is one of the default functions
+     * the interpreter computes inline, without angle conversions, or {@code
+     * UNARY} or {@code BINARY} otherwise.
+     *
+     * @param  operator the operator to apply
+     * @return          the opcode of the instruction applying the operator
+     */
+    static int opcode(Operator operator)
+    {
+        String builtin = operator.degreesIn() || operator.degreesOut() ?
+                null : operator.builtin();
+        if (operator.isUnary()) {
+            return "abs".equals(builtin) ? ABS :
+                   "sqrt".equals(builtin) ? SQRT :
+                   "^2".equals(builtin) ? SQUARE : UNARY;
+        } else if (builtin == null) {
+            return BINARY;
+        }
+        switch (builtin) {
+            case "+":
+                return ADD;
+            case "-":
+                return SUBTRACT;
+            case "*":
+                return MULTIPLY;
+            case "/":
+                return DIVIDE;
+            case "%":
+                return REMAINDER;
+            default: // "^"
+                return POWER;
+        }
+    }
+    
+    /**
+     * Returns {@code true} if the specified opcode applies a unary operator;
+     * {@code false} otherwise.
+     *
+     * @param  opcode the opcode to check
+     * @return        {@code true} if the opcode applies a unary operator;
+     *                {@code false} otherwise
+     */
+    static boolean isUnary(int opcode)
+    {
+        return opcode == UNARY || opcode >= ABS;
+    }
+    
+    /**
+     * Returns the deepest the operand stack gets while evaluating this
+     * expression.
+     *
+     * @return the deepest the operand stack gets while evaluating this
+     *         expression
+     */
+    int maxStack()
+    {
+        return maxStack;
+    }
+    
+    /**
+     * Returns the number of distinct operators this expression applies.
+     *
+     * @return the number of distinct operators this expression applies
+     */
+    int operatorCount()
+    {
+        return operators == null ? 0 : operators.length;
+    }
+    
+    /**
+     * Returns the cause of this expression being invalid, or {@code null} if
+     * it is valid.
+     *
+     * @return the cause of this expression being invalid, or {@code null}
+     */
+    CalculatorMetrics.ErrorCause errorCause()
+    {
+        return error;
+    }
+    
+    /**
+     * Returns the source text this expression was compiled from.
+     *
+     * @return the source text this expression was compiled from
+     */
+    @Override
+    public String toString()
+    {
+        return source;
+    }
+    
+    /**
+     * Returns the compiled form of invalid expressions for each cause of
+     * error, by ordinal.
+     *
+     * @return the compiled form of invalid expressions, by cause of error
+     */
+    private static CompiledExpression[] invalidExpressions()
+    {
+        CalculatorMetrics.ErrorCause[] causes =
+            CalculatorMetrics.ErrorCause.values();
+        CompiledExpression[] expressions =
+            new CompiledExpression[causes.length];
+        for (CalculatorMetrics.ErrorCause cause : causes) {
+            expressions[cause.ordinal()] = new CompiledExpression(cause);
+        }
+        return expressions;
+    }
+    
+    /**
+     * The interface implemented by the hidden classes generated for compiled
+     * expressions.
+     */
+    interface Kernel
+    {
+        /**
+         * Evaluates and returns the value of the expression.
+         *
+         * @param  answer    the value of {@code "ans"}
+         * @param  bindings  the values of the variables, by slot
+         * @param  operators the operators referenced by the expression
+         * @return           the value of the expression
+         */
+        double evaluate(double answer, double[] bindings, Operator[] operators);
+    }
+}
\ No newline at end of file
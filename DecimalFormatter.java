@@ -0,0 +1,190 @@
+import java.io.*;
+import java.text.*;
+import java.util.*;
+
+/**
+ * The {@code DecimalFormatter} class formats {@code double} values with a
+ * fixed number of digits after the decimal point, giving exactly the text
+ * {@code String.format("%.Nf", value)} would in the default locale, where
+ * {@code N} is the precision of the formatter. It is meant for writing many
+ * results, and reuses a single character buffer rather than going through a
+ * {@code Formatter} and its format string for each one.
+ * <p>
+ * {@code Formatter} rounds the shortest decimal digits that identify a value,
+ * rather than the exact binary value, half up to the precision. Those digits
+ * lie within half a unit in the last place of the value, so whenever the
+ * value scaled by ten to the precision is farther than that from the next
+ * halfway point, both round to the same whole number, which is then written
+ * with {@code long} arithmetic. Values too close to a halfway point to be
+ * sure, values too large or precise for a {@code long}, and infinities and
+ * {@code NaN} are formatted with a {@code Formatter} instead.
+ * <p>
+ * {@code DecimalFormatter} objects are not safe for use by more than one
+ * thread at a time.
+ *
+ * @author Kevin Zhu
+ */
+final class DecimalFormatter
+{
+    /** Exact powers of ten that can be represented by a {@code double}. */
+    private static final double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12,
+        1e13, 1e14, 1e15, 1e16, 1e17
+    };
+    
+    /**
+     * The largest scaled value formatted with {@code long} arithmetic, small
+     * enough that its distance to a halfway point is exact.
+     */
+    private static final double MAX_SCALED = 0x1p50;
+    
+    /** The number of digits after the decimal point. */
+    private final int precision;
+    
+    /** The character of the digit zero in the default locale. */
+    private final char zero;
+    
+    /** The decimal separator in the default locale. */
+    private final char decimalSeparator;
+    
+    /** The text of the last value formatted. */
+    private char[] buffer;
+    
+    /** The text of values formatted by {@code formatter}. */
+    private final StringBuilder fallback;
+    
+    /** The formatter used for the values not formatted directly. */
+    private final Formatter formatter;
+    
+    /** The format string of {@code formatter}. */
+    private final String format;
+    
+    /**
+     * Constructs a {@code DecimalFormatter} object that formats values with
+     * the specified number of digits after the decimal point, in the default
+     * locale for formatting.
+     *
+     * @param  precision                the number of digits after the decimal
+     *                                  point
+     * @throws IllegalArgumentException if {@code precision} is negative
+     */
+    DecimalFormatter(int precision)
+    {
+        if (precision < 0) {
+            throw new IllegalArgumentException("negative precision: " +
+                                               precision);
+        }
+        Locale locale = Locale.getDefault(Locale.Category.FORMAT);
+        DecimalFormatSymbols symbols =
+            DecimalFormatSymbols.getInstance(locale);
+        this.precision = precision;
+        zero = symbols.getZeroDigit();
+        decimalSeparator = symbols.getDecimalSeparator();
+        buffer = new char[32];
+        fallback = new StringBuilder();
+        formatter = new Formatter(fallback, locale);
+        format = "%." + precision + "f";
+    }
+    
+    /**
+     * Returns the number of digits after the decimal point this formatter
+     * writes.
+     *
+     * @return the number of digits after the decimal point
+     */
+    int precision()
+    {
+        return precision;
+    }
+    
+    /**
+     * Returns the specified value formatted with the precision of this
+     * formatter.
+     *
+     * @param  value the value to format
+     * @return       the formatted value
+     */
+    String format(double value)
+    {
+        int length = fill(value);
+        return new String(buffer, 0, length);
+    }
+    
+    /**
+     * Writes the specified value formatted with the precision of this
+     * formatter to the specified writer.
+     *
+     * @param  value       the value to format
+     * @param  out         the writer to write to
+     * @throws IOException if an I/O error occurs
+     */
+    void write(double value, Writer out) throws IOException
+    {
+        int length = fill(value);
+        out.write(buffer, 0, length);
+    }
+    
+    /**
+     * Formats the specified value into the buffer and returns its length.
+     *
+     * @param  value the value to format
+     * @return       the number of characters in the buffer
+     */
+    private int fill(double value)
+    {
+        if (precision < POWERS_OF_TEN.length) {
+            double scale = POWERS_OF_TEN[precision];
+            double magnitude = Math.abs(value);
+            double scaled = magnitude * scale;
+            if (scaled < MAX_SCALED) { // false for infinities and NaN
+                double whole = Math.floor(scaled);
+                double fraction = scaled - whole; // exact
+                double margin = Math.ulp(magnitude) * scale +
+                                Math.ulp(scaled);
+                if (Math.abs(fraction - 0.5) > margin) {
+                    return fill(Double.doubleToRawLongBits(value) < 0,
+                                (long) whole + (fraction > 0.5 ? 1 : 0));
+                }
+            }
+        }
+        fallback.setLength(0);
+        formatter.format(format, value);
+        int length = fallback.length();
+        if (buffer.length < length) {
+            buffer = new char[length];
+        }
+        fallback.getChars(0, length, buffer, 0);
+        return length;
+    }
+    
+    /**
+     * Formats the specified number of units of the last digit into the
+     * buffer and returns its length.
+     *
+     * @param  negative whether to write a minus sign
+     * @param  units    the non-negative value, scaled by ten to the precision
+     * @return          the number of characters in the buffer
+     */
+    private int fill(boolean negative, long units)
+    {
+        char[] buffer = this.buffer;
+        int i = buffer.length; // written backwards from the end
+        for (int digit = 0; digit < precision; ++digit) {
+            buffer[--i] = (char) (zero + (int) (units % 10));
+            units /= 10;
+        }
+        if (precision > 0) {
+            buffer[--i] = decimalSeparator;
+        }
+        do {
+            buffer[--i] = (char) (zero + (int) (units % 10));
+            units /= 10;
+        } while (units != 0);
+        if (negative) {
+            buffer[--i] = '-';
+        }
+        int length = buffer.length - i;
+        System.arraycopy(buffer, i, buffer, 0, length);
+        return length;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,98 @@
+import java.util.*;
+
+/**
+ * The {@code DoubleStack} class provides a growable last-in-first-out stack of
+ * primitive {@code double} values. Unlike a {@code Deque<Double>}, it stores
+ * its elements in a {@code double[]}, so pushing and popping values never
+ * boxes them. A stack keeps its capacity when cleared, so a stack reused
+ * across evaluations stops allocating once it has grown to the deepest
+ * expression evaluated.
+ *
+ * @author Kevin Zhu
+ */
+public final class DoubleStack
+{
+    /** The default initial capacity of a stack. */
+    private static final int DEFAULT_CAPACITY = 16;
+    
+    /** The elements of this stack, from bottom to top. */
+    private double[] elements;
+    
+    /** The number of elements in this stack. */
+    private int size;
+    
+    /** Constructs an empty {@code DoubleStack} object. */
+    public DoubleStack()
+    {
+        elements = new double[DEFAULT_CAPACITY];
+    }
+    
+    /**
+     * Pushes the specified value onto the top of this stack.
+     *
+     * @param value the value to push
+     */
+    public void push(double value)
+    {
+        if (size == elements.length) {
+            elements = Arrays.copyOf(elements, size * 2);
+        }
+        elements[size++] = value;
+    }
+    
+    /**
+     * Removes and returns the value on the top of this stack.
+     *
+     * @return                        the value on the top of this stack
+     * @throws NoSuchElementException if this stack is empty
+     */
+    public double pop()
+    {
+        if (size == 0) {
+            throw new NoSuchElementException();
+        }
+        return elements[--size];
+    }
+    
+    /**
+     * Returns the value on the top of this stack without removing it.
+     *
+     * @return                        the value on the top of this stack
+     * @throws NoSuchElementException if this stack is empty
+     */
+    public double peek()
+    {
+        if (size == 0) {
+            throw new NoSuchElementException();
+        }
+        return elements[size - 1];
+    }
+    
+    /**
+     * Returns the number of values in this stack.
+     *
+     * @return the number of values in this stack
+     */
+    public int size()
+    {
+        return size;
+    }
+    
+    /**
+     * Returns {@code true} if this stack contains no values; {@code false}
+     * otherwise.
+     *
+     * @return {@code true} if this stack contains no values; {@code false}
+     *         otherwise
+     */
+    public boolean isEmpty()
+    {
+        return size == 0;
+    }
+    
+    /** Removes all values from this stack, keeping its capacity. */
+    public void clear()
+    {
+        size = 0;
+    }
+}
\ No newline at end of file
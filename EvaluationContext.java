@@ -0,0 +1,172 @@
+import java.util.*;
+
+/**
+ * The {@code EvaluationContext} class holds the state of one caller of a
+ * calculator: the last answer, which expressions refer to as {@code "ans"},
+ * and the scratch space used to parse and evaluate expressions. A calculator
+ * itself only holds settings that are replaced as a whole when they change,
+ * so a single calculator can be shared by many threads as long as each thread
+ * evaluates with its own context.
+ * <p>
+ * {@code EvaluationContext} objects are not safe for use by more than one
+ * thread at a time. They are cheap to create, and keep their scratch space
+ * between evaluations, so a context reused by one thread stops allocating
+ * once it has grown to the largest expression evaluated.
+ *
+ * @author Kevin Zhu
+ */
+public final class EvaluationContext
+{
+    /** The initial size of the operand stack for compiled expressions. */
+    private static final int INITIAL_STACK_SIZE = 16;
+    
+    /** The last answer in this context. */
+    private double answer;
+    
+    /** The lexer used to read expression tokens. */
+    private final ExpressionLexer lexer;
+    
+    /** The sink used to evaluate expressions as they are parsed. */
+    private final ExpressionEvaluator evaluator;
+    
+    /** The operand stack used to evaluate compiled expressions. */
+    private double[] stack;
+    
+    /** The stack of operators awaiting operands, used by parsers. */
+    private int[] pending;
+    
+    /** The counts and times of operators while measuring an evaluation. */
+    private long[] timings;
+    
+    /** The cause of the last parse failing, or {@code null}. */
+    private CalculatorMetrics.ErrorCause error;
+    
+    /** Constructs an {@code EvaluationContext} object with no last answer. */
+    public EvaluationContext()
+    {
+        answer = Double.NaN;
+        lexer = new ExpressionLexer();
+        evaluator = new ExpressionEvaluator();
+        stack = new double[INITIAL_STACK_SIZE];
+        pending = new int[INITIAL_STACK_SIZE];
+        timings = new long[0];
+    }
+    
+    /**
+     * Returns the last answer in this context, or {@code Double.NaN} if
+     * nothing has been evaluated in it yet.
+     *
+     * @return the last answer in this context
+     */
+    public double getAnswer()
+    {
+        return answer;
+    }
+    
+    /**
+     * Sets the last answer in this context, which the next expression
+     * evaluated in it refers to as {@code "ans"}.
+     *
+     * @param answer the last answer to set
+     */
+    public void setAnswer(double answer)
+    {
+        this.answer = answer;
+    }
+    
+    /**
+     * Returns the lexer of this context.
+     *
+     * @return the lexer of this context
+     */
+    ExpressionLexer lexer()
+    {
+        return lexer;
+    }
+    
+    /**
+     * Returns the evaluating sink of this context.
+     *
+     * @return the evaluating sink of this context
+     */
+    ExpressionEvaluator evaluator()
+    {
+        return evaluator;
+    }
+    
+    /**
+     * Returns the operand stack of this context, growing it first if it holds
+     * fewer than the specified number of elements.
+     *
+     * @param  size the number of elements needed
+     * @return      the operand stack of this context
+     */
+    double[] stack(int size)
+    {
+        if (stack.length < size) {
+            stack = new double[size];
+        }
+        return stack;
+    }
+    
+    /**
+     * Returns the stack of operators awaiting operands of this context,
+     * growing it first if it holds fewer than the specified number of
+     * elements. Growing keeps the elements already on the stack.
+     *
+     * @param  size the number of elements needed
+     * @return      the stack of operators awaiting operands of this context
+     */
+    int[] pending(int size)
+    {
+        if (pending.length < size) {
+            pending = Arrays.copyOf(pending,
+                                    Math.max(size, pending.length * 2));
+        }
+        return pending;
+    }
+    
+    /**
+     * Returns the array used to total the counts and times of operators while
+     * measuring an evaluation, growing it first if it holds fewer than the
+     * specified number of elements. The elements are all zero.
+     *
+     * @param  size the number of elements needed
+     * @return      the array used to total the counts and times of operators
+     */
+    long[] timings(int size)
+    {
+        if (timings.length < size) {
+            timings = new long[size];
+        }
+        return timings;
+    }
+    
+    /**
+     * Records the specified cause for the expression being parsed in this
+     * context being invalid, and returns {@code false} so that parsers can
+     * record and report a failure at once.
+     *
+     * @param  cause the cause of the expression being invalid
+     * @return       {@code false}
+     */
+    boolean fail(CalculatorMetrics.ErrorCause cause)
+    {
+        error = cause;
+        return false;
+    }
+    
+    /**
+     * Returns the cause recorded by the last failed parse in this context, and
+     * clears it.
+     *
+     * @return the cause of the last parse failing, or {@code null} if none
+     *         was recorded
+     */
+    CalculatorMetrics.ErrorCause takeError()
+    {
+        CalculatorMetrics.ErrorCause error = this.error;
+        this.error = null;
+        return error;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,273 @@
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * The {@code ExpressionCache} class provides a bounded cache of compiled
+ * expressions keyed by their source text. When the cache is full, an
+ * expression that has not been used recently is evicted to make room for a
+ * new one. The cache counts its hits, misses and evictions so that clients
+ * can judge whether its capacity suits their workload.
+ * <p>
+ * The cache is safe for use by many threads at once without locking. Lookups
+ * only read a concurrent map and mark the entry found as used, and eviction
+ * follows the CLOCK approximation of least-recently-used order: entries are
+ * queued in insertion order, and an entry reaching the head of the queue is
+ * evicted unless it was used since it was last there, in which case it is
+ * unmarked and queued again. While threads are adding expressions, the cache
+ * may briefly hold a few more expressions than its capacity.
+ * <p>
+ * Each expression is cached together with the calculator settings it was
+ * compiled under, and is only found by lookups made under the same settings,
+ * so an expression compiled while the settings were being changed is never
+ * returned for the new settings.
+ * <p>
+ * A cache with a capacity of zero is disabled: it never stores expressions and
+ * does not count lookups.
+ *
+ * @author Kevin Zhu
+ */
+public final class ExpressionCache
+{
+    /** The default capacity of a cache. */
+    public static final int DEFAULT_CAPACITY = 256;
+    
+    /** The cached entries, by source text. */
+    private final ConcurrentMap<String, Entry> entries;
+    
+    /** The source texts of the cached entries, in eviction order. */
+    private final Queue<String> clock;
+    
+    /** The maximum number of expressions this cache holds. */
+    private volatile int capacity;
+    
+    /** The number of lookups that found a cached expression. */
+    private final LongAdder hits;
+    
+    /** The number of lookups that did not find a cached expression. */
+    private final LongAdder misses;
+    
+    /** The number of expressions evicted to make room for others. */
+    private final LongAdder evictions;
+    
+    /**
+     * Constructs an empty {@code ExpressionCache} object with the specified
+     * capacity.
+     *
+     * @param  capacity                 the maximum number of expressions to
+     *                                  hold
+     * @throws IllegalArgumentException if {@code capacity} is negative
+     */
+    public ExpressionCache(int capacity)
+    {
+        entries = new ConcurrentHashMap<>();
+        clock = new ConcurrentLinkedQueue<>();
+        hits = new LongAdder();
+        misses = new LongAdder();
+        evictions = new LongAdder();
+        setCapacity(capacity);
+    }
+    
+    /**
+     * Returns the cached expression compiled from the specified source text
+     * under the specified settings, or {@code null} if there is no such
+     * expression.
+     *
+     * @param  source   the source text of the expression
+     * @param  settings the settings the expression must have been compiled
+     *                  under
+     * @return          the cached expression compiled from the specified
+     *                  source text under the specified settings, or {@code
+     *                  null} if there is no such expression
+     */
+    CompiledExpression get(String source, CalculatorSettings settings)
+    {
+        if (capacity == 0) {
+            return null;
+        }
+        Entry entry = entries.get(source);
+        if (entry == null || entry.settings != settings) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        if (!entry.used) { // avoid writing to a shared entry on every hit
+            entry.used = true;
+        }
+        return entry.expression;
+    }
+    
+    /**
+     * Caches the specified expression under its source text and the settings
+     * it was compiled under, evicting expressions that have not been used
+     * recently if this cache is full. If another thread has just cached an
+     * expression for the same source text and settings, that expression is
+     * kept and returned instead, so that all callers share one object.
+     *
+     * @param  source     the source text of the expression
+     * @param  settings   the settings the expression was compiled under
+     * @param  expression the compiled expression
+     * @return            the expression now cached for the source text, which
+     *                    is the specified expression unless another thread
+     *                    cached one first
+     */
+    CompiledExpression put(String source, CalculatorSettings settings,
+                           CompiledExpression expression)
+    {
+        if (capacity == 0) {
+            return expression;
+        }
+        Entry entry = new Entry(expression, settings);
+        Entry previous = entries.putIfAbsent(source, entry);
+        if (previous == null) {
+            clock.offer(source);
+        } else if (previous.settings == settings) {
+            return previous.expression;
+        } else if (!entries.replace(source, previous, entry)) {
+            return expression; // lost a race; the caller still gets a result
+        }
+        evict(capacity);
+        return expression;
+    }
+    
+    /**
+     * Removes all expressions from this cache, keeping its counters. The
+     * queue is drained and only the entries it names are removed, so an
+     * expression that another thread adds meanwhile keeps its place in the
+     * queue and can still be evicted.
+     */
+    public void clear()
+    {
+        for (String source; (source = clock.poll()) != null; ) {
+            entries.remove(source);
+        }
+    }
+    
+    /**
+     * Returns the maximum number of expressions this cache holds.
+     *
+     * @return the maximum number of expressions this cache holds
+     */
+    public int getCapacity()
+    {
+        return capacity;
+    }
+    
+    /**
+     * Sets the maximum number of expressions this cache holds, evicting
+     * expressions that have not been used recently if it currently holds
+     * more.
+     *
+     * @param  capacity                 the maximum number of expressions to
+     *                                  hold, or zero to disable this cache
+     * @throws IllegalArgumentException if {@code capacity} is negative
+     */
+    public void setCapacity(int capacity)
+    {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("negative capacity: " +
+                                               capacity);
+        }
+        this.capacity = capacity;
+        evict(capacity);
+    }
+    
+    /**
+     * Evicts expressions until this cache holds at most the specified number
+     * of them, giving each recently used expression a second chance.
+     *
+     * @param capacity the number of expressions to keep at most
+     */
+    private void evict(int capacity)
+    {
+        while (entries.size() > capacity) {
+            String source = clock.poll();
+            if (source == null) {
+                return; // another thread is evicting or clearing
+            }
+            Entry entry = entries.get(source);
+            if (entry == null) {
+                continue; // already removed by clear
+            } else if (entry.used && capacity > 0) {
+                entry.used = false;
+                clock.offer(source);
+            } else if (entries.remove(source, entry)) {
+                evictions.increment();
+            }
+        }
+    }
+    
+    /**
+     * Returns the number of expressions in this cache.
+     *
+     * @return the number of expressions in this cache
+     */
+    public int size()
+    {
+        return entries.size();
+    }
+    
+    /**
+     * Returns the number of lookups that found a cached expression.
+     *
+     * @return the number of lookups that found a cached expression
+     */
+    public long getHits()
+    {
+        return hits.sum();
+    }
+    
+    /**
+     * Returns the number of lookups that did not find a cached expression.
+     *
+     * @return the number of lookups that did not find a cached expression
+     */
+    public long getMisses()
+    {
+        return misses.sum();
+    }
+    
+    /**
+     * Returns the number of expressions evicted to make room for others.
+     *
+     * @return the number of expressions evicted to make room for others
+     */
+    public long getEvictions()
+    {
+        return evictions.sum();
+    }
+    
+    /** {@inheritDoc} */
+    @Override
+    public String toString()
+    {
+        return "cache: " + size() + "/" + capacity + ", hits: " + getHits() +
+               ", misses: " + getMisses() + ", evictions: " + getEvictions();
+    }
+    
+    /** A cached expression with the settings it was compiled under. */
+    private static final class Entry
+    {
+        /** The compiled expression. */
+        private final CompiledExpression expression;
+        
+        /** The settings the expression was compiled under. */
+        private final CalculatorSettings settings;
+        
+        /** Whether the expression was used since the clock last passed. */
+        private volatile boolean used;
+        
+        /**
+         * Constructs an {@code Entry} object for the specified expression.
+         *
+         * @param expression the compiled expression
+         * @param settings   the settings the expression was compiled under
+         */
+        private Entry(CompiledExpression expression,
+                      CalculatorSettings settings)
+        {
+            this.expression = expression;
+            this.settings = settings;
+        }
+    }
+}
\ No newline at end of file
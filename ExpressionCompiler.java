@@ -0,0 +1,400 @@
+import java.util.*;
+import java.util.function.*;
+
+/**
+ * The {@code ExpressionCompiler} class is an {@code ExpressionSink} that
+ * records an expression as it is parsed and builds a {@code
+ * CompiledExpression} from it. Operators arrive already resolved against the
+ * settings of the parsing calculator, so the compiled expression does not
+ * depend on later changes to those settings. Variables declared when
+ * the compiler is constructed are resolved to their slot indices.
+ * <p>
+ * With {@code Optimization.EXACT}, the compiler also simplifies the
+ * expression as it is recorded. An operator applied to constant operands is
+ * applied once at compile time and recorded as the constant it produces, and
+ * operations that are known to return their other operand unchanged, such as
+ * {@code x * 1} or {@code x ^ 1}, are left out. Only the default operator
+ * functions of {@code AbstractCalculator} are treated this way, since they
+ * are known to have no side effects, and each simplification gives exactly
+ * the value, bit for bit, that evaluating the operation would. In
+ * particular, {@code x + 0} is kept, since it turns {@code -0.0} into {@code
+ * 0.0}, while {@code x - 0} and {@code x + -0} are left out.
+ * <p>
+ * A power with a constant exponent is recorded as a unary operator on its
+ * base when {@code Powers} has a specialized form for the exponent, such as
+ * {@code x * x} for {@code x ^ 2}. With {@code Optimization.EXACT}, only the
+ * forms that give exactly the value {@code Math.pow} would are used; with
+ * {@code Optimization.RELAXED}, small whole exponents are also computed by
+ * repeated multiplication.
+ *
+ * @author Kevin Zhu
+ */
+public final class ExpressionCompiler implements ExpressionSink
+{
+    /** The bits of {@code -0.0}, which differ from those of {@code 0.0}. */
+    private static final long NEGATIVE_ZERO_BITS =
+        Double.doubleToRawLongBits(-0.0);
+    
+    /** Whether constant subexpressions and identities are simplified. */
+    private final boolean simplifying;
+    
+    /** Whether powers may be computed in ways that round differently. */
+    private final boolean relaxed;
+    
+    /** The names of the declared variables, by slot. */
+    private final String[] variables;
+    
+    /** The slots of the declared variables, by name. */
+    private final SymbolTable<Integer> slots;
+    
+    /** The instructions recorded so far. */
+    private int[] code;
+    
+    /** The number of instructions recorded so far. */
+    private int codeLength;
+    
+    /** The constants recorded so far. */
+    private double[] constants;
+    
+    /** The number of constants recorded so far. */
+    private int constantCount;
+    
+    /** The operators recorded so far, in order of first use. */
+    private final List<Operator> operators;
+    
+    /** The indices of the recorded operators, by identity. */
+    private final Map<Operator, Integer> operatorIndices;
+    
+    /** The specialized powers created so far, by power operator and form. */
+    private final Map<Operator, Map<DoubleUnaryOperator, Operator>> powers;
+    
+    /** The current depth of the operand stack. */
+    private int depth;
+    
+    /** The index of the first instruction of each operand on the stack. */
+    private int[] starts;
+    
+    /** The deepest the operand stack has been. */
+    private int maxDepth;
+    
+    /** Whether an argument too large for an instruction has been recorded. */
+    private boolean overflowed;
+    
+    /**
+     * Constructs an {@code ExpressionCompiler} object that resolves the
+     * specified variables to their indices in the array and records
+     * expressions exactly as written.
+     *
+     * @param variables the names of the variables, by slot
+     */
+    public ExpressionCompiler(String... variables)
+    {
+        this(AbstractCalculator.Optimization.NONE, variables);
+    }
+    
+    /**
+     * Constructs an {@code ExpressionCompiler} object that resolves the
+     * specified variables to their indices in the array and applies the
+     * specified optimizations.
+     *
+     * @param optimization the optimizations to apply
+     * @param variables    the names of the variables, by slot
+     */
+    public ExpressionCompiler(AbstractCalculator.Optimization optimization,
+                              String... variables)
+    {
+        simplifying = optimization != AbstractCalculator.Optimization.NONE;
+        relaxed = optimization == AbstractCalculator.Optimization.RELAXED;
+        this.variables = variables.clone();
+        Map<String, Integer> indices = new HashMap<>();
+        for (int i = 0; i < variables.length; ++i) {
+            indices.put(variables[i], i);
+        }
+        slots = new SymbolTable<>(indices);
+        code = new int[16];
+        constants = new double[8];
+        operators = new ArrayList<>();
+        operatorIndices = new IdentityHashMap<>();
+        powers = new IdentityHashMap<>();
+        starts = new int[8];
+    }
+    
+    /**
+     * Builds the compiled form of the expression received so far. If the
+     * expression has more constants, variables or operators than the
+     * arguments of instructions can refer to, the compiled form is invalid
+     * with {@code ErrorCause.TOO_LARGE} as the cause.
+     *
+     * @param  source the source text of the expression
+     * @return        the compiled form of the expression received so far
+     */
+    public CompiledExpression build(String source)
+    {
+        if (overflowed) {
+            return CompiledExpression.invalid(
+                    CalculatorMetrics.ErrorCause.TOO_LARGE);
+        }
+        return new CompiledExpression(source, variables,
+                Arrays.copyOf(code, codeLength),
+                Arrays.copyOf(constants, constantCount),
+                operators.toArray(new Operator[0]), maxDepth);
+    }
+    
+    /** {@inheritDoc} */
+    @Override
+    public void number(double value)
+    {
+        if (constantCount == constants.length) {
+            constants = Arrays.copyOf(constants, constantCount * 2);
+        }
+        constants[constantCount] = value;
+        emit(CompiledExpression.CONSTANT, constantCount++, 1);
+    }
+    
+    /** {@inheritDoc} */
+    @Override
+    public void answer()
+    {
+        emit(CompiledExpression.ANSWER, 0, 1);
+    }
+    
+    /** {@inheritDoc} */
+    @Override
+    public boolean variable(ExpressionLexer tokens)
+    {
+        Integer slot = tokens.lookup(slots);
+        if (slot == null) {
+            return false;
+        }
+        emit(CompiledExpression.VARIABLE, slot, 1);
+        return true;
+    }
+    
+    /** {@inheritDoc} */
+    @Override
+    public void unary(Operator operator)
+    {
+        if (simplifying && operator.builtin() != null &&
+                isConstant(depth - 1)) {
+            double value = operator.apply(constant(depth - 1));
+            removeLast();
+            number(value);
+            return;
+        }
+        emit(CompiledExpression.opcode(operator), indexOf(operator), 0);
+    }
+    
+    /** {@inheritDoc} */
+    @Override
+    public void binary(Operator operator)
+    {
+        String builtin = operator.builtin();
+        if (simplifying && builtin != null) {
+            if (isConstant(depth - 2) && isConstant(depth - 1)) {
+                double value = operator.apply(constant(depth - 2),
+                                              constant(depth - 1));
+                removeLast();
+                removeLast();
+                number(value);
+                return;
+            } else if (isRightIdentity(builtin, depth - 1)) {
+                removeLast(); // x * 1, x / 1, x ^ 1, x - 0 and x + -0
+                return;
+            } else if (isLeftIdentity(builtin, depth - 2)) {
+                removeLeft(); // 1 * x and -0 + x
+                return;
+            } else if (builtin.equals("^") && isConstant(depth - 1)) {
+                DoubleUnaryOperator function =
+                    Powers.function(constant(depth - 1), relaxed);
+                if (function != null) {
+                    removeLast();
+                    Operator power = power(operator, function);
+                    emit(CompiledExpression.opcode(power), indexOf(power), 0);
+                    return;
+                }
+            }
+        }
+        emit(CompiledExpression.opcode(operator), indexOf(operator), -1);
+    }
+    
+    /** {@inheritDoc} */
+    @Override
+    public int size()
+    {
+        return depth;
+    }
+    
+    /**
+     * Returns {@code true} if the operand at the specified stack position is
+     * a single constant; {@code false} otherwise.
+     *
+     * @param  position the position of the operand on the stack
+     * @return          {@code true} if the operand is a single constant;
+     *                  {@code false} otherwise
+     */
+    private boolean isConstant(int position)
+    {
+        int end = position == depth - 1 ? codeLength : starts[position + 1];
+        return end - starts[position] == 1 &&
+               (code[starts[position]] & CompiledExpression.OPCODE_MASK) ==
+               CompiledExpression.CONSTANT;
+    }
+    
+    /**
+     * Returns the value of the constant operand at the specified stack
+     * position.
+     *
+     * @param  position the position of the operand on the stack
+     * @return          the value of the constant operand
+     */
+    private double constant(int position)
+    {
+        return constants[code[starts[position]] >>>
+                         CompiledExpression.OPCODE_BITS];
+    }
+    
+    /**
+     * Returns {@code true} if the operand at the specified stack position is
+     * a constant that the specified default binary operator returns its left
+     * operand unchanged for; {@code false} otherwise.
+     *
+     * @param  builtin  the default symbol of the binary operator
+     * @param  position the position of the right operand on the stack
+     * @return          {@code true} if the operator returns its left operand
+     *                  unchanged; {@code false} otherwise
+     */
+    private boolean isRightIdentity(String builtin, int position)
+    {
+        if (!isConstant(position)) {
+            return false;
+        }
+        double value = constant(position);
+        switch (builtin) {
+            case "*":
+            case "/":
+            case "^":
+                return value == 1.0;
+            case "-":
+                return Double.doubleToRawLongBits(value) == 0L;
+            case "+":
+                return Double.doubleToRawLongBits(value) == NEGATIVE_ZERO_BITS;
+            default:
+                return false;
+        }
+    }
+    
+    /**
+     * Returns {@code true} if the operand at the specified stack position is
+     * a constant that the specified default binary operator returns its right
+     * operand unchanged for; {@code false} otherwise.
+     *
+     * @param  builtin  the default symbol of the binary operator
+     * @param  position the position of the left operand on the stack
+     * @return          {@code true} if the operator returns its right operand
+     *                  unchanged; {@code false} otherwise
+     */
+    private boolean isLeftIdentity(String builtin, int position)
+    {
+        if (!isConstant(position)) {
+            return false;
+        }
+        double value = constant(position);
+        switch (builtin) {
+            case "*":
+                return value == 1.0;
+            case "+":
+                return Double.doubleToRawLongBits(value) == NEGATIVE_ZERO_BITS;
+            default:
+                return false;
+        }
+    }
+    
+    /**
+     * Removes the operand at the top of the stack, which must be a single
+     * constant, releasing its entry in the constants if it was the last one
+     * recorded.
+     */
+    private void removeLast()
+    {
+        int index = code[--codeLength] >>> CompiledExpression.OPCODE_BITS;
+        if (index == constantCount - 1) {
+            --constantCount;
+        }
+        --depth;
+    }
+    
+    /**
+     * Removes the operand just below the top of the stack, which must be a
+     * single constant, so that the operand at the top takes its place.
+     */
+    private void removeLeft()
+    {
+        int start = starts[depth - 2];
+        int index = code[start] >>> CompiledExpression.OPCODE_BITS;
+        System.arraycopy(code, start + 1, code, start, codeLength - start - 1);
+        --codeLength;
+        if (index == constantCount - 1) {
+            --constantCount;
+        }
+        --depth;
+    }
+    
+    /**
+     * Returns the unary operator applying the specified specialized form of
+     * the specified power operator, creating it first if it is new. The new
+     * operator has the same symbol as the power operator.
+     *
+     * @param  operator the power operator
+     * @param  function the specialized form of the power operator
+     * @return          the unary operator applying the specialized form
+     */
+    private Operator power(Operator operator, DoubleUnaryOperator function)
+    {
+        return powers.computeIfAbsent(operator, key -> new IdentityHashMap<>())
+                     .computeIfAbsent(function, key -> new Operator(
+                             operator.symbol(), function, false, false));
+    }
+    
+    /**
+     * Returns the index of the specified operator in the recorded operators,
+     * recording it first if it is new.
+     *
+     * @param  operator the operator to look up
+     * @return          the index of the operator in the recorded operators
+     */
+    private int indexOf(Operator operator)
+    {
+        Integer index = operatorIndices.get(operator);
+        if (index == null) {
+            index = operators.size();
+            operators.add(operator);
+            operatorIndices.put(operator, index);
+        }
+        return index;
+    }
+    
+    /**
+     * Records an instruction with the specified opcode and argument.
+     *
+     * @param opcode   the opcode of the instruction
+     * @param argument the argument of the instruction
+     * @param effect   the change in operand stack depth the instruction causes
+     */
+    private void emit(int opcode, int argument, int effect)
+    {
+        if (codeLength == code.length) {
+            code = Arrays.copyOf(code, codeLength * 2);
+        }
+        if (effect > 0) {
+            if (depth == starts.length) {
+                starts = Arrays.copyOf(starts, depth * 2);
+            }
+            starts[depth] = codeLength;
+        }
+        overflowed |= argument > CompiledExpression.MAX_ARGUMENT;
+        code[codeLength++] =
+            argument << CompiledExpression.OPCODE_BITS | opcode;
+        depth += effect;
+        maxDepth = Math.max(maxDepth, depth);
+    }
+}
\ No newline at end of file
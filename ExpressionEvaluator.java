@@ -0,0 +1,98 @@
+/**
+ * The {@code ExpressionEvaluator} class is an {@code ExpressionSink} that
+ * evaluates an expression while it is being parsed. Operands are pushed onto a
+ * primitive operand stack and each operator is applied as soon as it is
+ * received, through the {@code Operator} objects resolved by the parsing
+ * calculator.
+ * The operand stack is kept between expressions, so an evaluator can be reset
+ * and reused without allocating.
+ *
+ * @author Kevin Zhu
+ */
+public final class ExpressionEvaluator implements ExpressionSink
+{
+    /** The operand stack. */
+    private final DoubleStack operands;
+    
+    /** The value of {@code "ans"} in the current expression. */
+    private double answer;
+    
+    /** Constructs an empty {@code ExpressionEvaluator} object. */
+    public ExpressionEvaluator()
+    {
+        operands = new DoubleStack();
+        answer = Double.NaN;
+    }
+    
+    /**
+     * Clears this evaluator to start evaluating a new expression, in which
+     * {@code "ans"} has the specified value.
+     *
+     * @param answer the value of {@code "ans"} in the new expression
+     */
+    public void reset(double answer)
+    {
+        operands.clear();
+        this.answer = answer;
+    }
+    
+    /**
+     * Returns the value of the most recent operand, which is the value of the
+     * whole expression once a valid expression has been received.
+     *
+     * @return the value of the most recent operand
+     */
+    public double result()
+    {
+        return operands.peek();
+    }
+    
+    /** {@inheritDoc} */
+    @Override
+    public void number(double value)
+    {
+        operands.push(value);
+    }
+    
+    /** {@inheritDoc} */
+    @Override
+    public void answer()
+    {
+        operands.push(answer);
+    }
+    
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Expressions evaluated while parsing have no variables, so this
+     * implementation always returns {@code false}.
+     */
+    @Override
+    public boolean variable(ExpressionLexer tokens)
+    {
+        return false;
+    }
+    
+    /** {@inheritDoc} */
+    @Override
+    public void unary(Operator operator)
+    {
+        operands.push(operator.apply(operands.pop()));
+    }
+    
+    /** {@inheritDoc} */
+    @Override
+    public void binary(Operator operator)
+    {
+        double operand2 = operands.pop();
+        double operand1 = operands.pop();
+        operands.push(operator.apply(operand1, operand2));
+    }
+    
+    /** {@inheritDoc} */
+    @Override
+    public int size()
+    {
+        return operands.size();
+    }
+}
\ No newline at end of file
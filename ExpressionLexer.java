@@ -0,0 +1,1135 @@
+import java.io.*;
+import java.math.*;
+import java.nio.*;
+import java.util.*;
+
+/**
+ * The {@code ExpressionLexer} class splits calculator expressions into tokens.
+ * It reads a {@code CharSequence} one character at a time and reports each
+ * token as an {@code int} kind, with the value of numeric tokens available as
+ * a {@code double}, so that no objects are created per token. A single lexer
+ * can be reused for any number of expressions through the {@code reset}
+ * method.
+ * <p>
+ * Tokens are separated by whitespace. If requested, parentheses are also
+ * reported as tokens of their own, whether or not they are surrounded by
+ * whitespace. Given a {@code SymbolTable} of operators, a lexer instead
+ * splits tokens wherever they end, whitespace or not: each token is the
+ * longest of the operator, the numeric literal and the word of letters,
+ * digits and underscores that start where it does, with operators winning
+ * ties, so {@code "2*sin(1)+3"} is read in a single pass just as {@code
+ * "2 * sin ( 1 ) + 3"} is. A sign then only starts a numeric literal where
+ * an operand is expected, which only the parser can tell, since an operator
+ * may come before or after its operand: the parser reports it through
+ * {@code expectOperand} before asking for each token. Numeric tokens follow
+ * the same
+ * forms accepted by {@code Scanner.nextDouble} in the default (US) locale: an
+ * optional sign followed by a decimal numeral (in the digits of any script,
+ * optionally with {@code ","} group separators and an exponent), a
+ * hexadecimal floating point numeral, or one of {@code "NaN"} and {@code
+ * "Infinity"}. Their values are rounded
+ * exactly as {@code Double.parseDouble} would round them, but are nearly
+ * always computed straight from the characters of the token, without
+ * creating a string. The token {@code "ans"} is
+ * reported as its own kind, and any other token is reported as a word, which
+ * can be matched against operators through a {@code SymbolTable}.
+ * <p>
+ * A lexer can also be set to read every token of an expression as soon as it
+ * is reset, replaying them from a buffer as they are asked for. Calculators do
+ * this while measuring, so that the time spent reading tokens can be told
+ * apart from the time spent parsing them. A lexer splitting tokens at
+ * operators cannot read ahead, since its tokens depend on what the parser
+ * expects, so it times each token as it is read instead.
+ * <p>
+ * Instead of a {@code CharSequence}, a lexer can read an expression from a
+ * {@code Reader}, through a window of characters that is refilled as tokens
+ * are read. Only the current token needs to stay in the window, so memory use
+ * depends on the length of the longest token rather than on the length of
+ * the expression, and expressions far larger than the heap can be read.
+ *
+ * @author Kevin Zhu
+ */
+public final class ExpressionLexer
+{
+    /** The token kind reported when there are no more tokens. */
+    public static final int END = 0;
+    
+    /** The token kind of numeric literals. */
+    public static final int NUMBER = 1;
+    
+    /** The token kind of the last answer, {@code "ans"}. */
+    public static final int ANSWER = 2;
+    
+    /** The token kind of any other token, such as an operator. */
+    public static final int WORD = 3;
+    
+    /** The token kind of {@code "("}, if parentheses are split off. */
+    public static final int LEFT_PARENTHESIS = 4;
+    
+    /** The token kind of {@code ")"}, if parentheses are split off. */
+    public static final int RIGHT_PARENTHESIS = 5;
+    
+    /** Exact powers of ten that can be represented by a {@code double}. */
+    private static final double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12,
+        1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+    
+    /** The initial number of tokens the buffer holds. */
+    private static final int INITIAL_BUFFER_SIZE = 64;
+    
+    /** The initial number of characters the window of a reader holds. */
+    private static final int INITIAL_WINDOW_SIZE = 8192;
+    
+    /** The most decimal digits that always fit in a {@code long}. */
+    private static final int MAX_DIGITS = 18;
+    
+    /** The largest integer below which all integers are exact doubles. */
+    private static final long MAX_EXACT_INTEGER = 1L << 53;
+    
+    /**
+     * The decimal exponent below which every number of up to {@code
+     * MAX_DIGITS} digits rounds to zero.
+     */
+    private static final int MIN_DECIMAL_EXPONENT = -342;
+    
+    /** The decimal exponent above which every nonzero number overflows. */
+    private static final int MAX_DECIMAL_EXPONENT = 308;
+    
+    /** The expression being split into tokens. */
+    private CharSequence input;
+    
+    /** The reader the window is refilled from, or {@code null}. */
+    private Reader reader;
+    
+    /** The characters read from the reader and not yet discarded. */
+    private char[] window;
+    
+    /** Whether parentheses are tokens of their own. */
+    private boolean parentheses;
+    
+    /** The operators tokens are split at, or {@code null} if not split. */
+    private SymbolTable<?> operators;
+    
+    /** Whether an operand is expected next, when splitting tokens. */
+    private boolean operandExpected;
+    
+    /** The index of the next character to read. */
+    private int position;
+    
+    /** The index of the first character of the current token. */
+    private int start;
+    
+    /** The index after the last character of the current token. */
+    private int end;
+    
+    /** The value of the current token, if it is a number. */
+    private double number;
+    
+    /** The significant digits of the number being scanned. */
+    private long mantissa;
+    
+    /** The count of significant digits kept in {@code mantissa}. */
+    private int digits;
+    
+    /** The decimal exponent to scale {@code mantissa} by. */
+    private int exponent;
+    
+    /** Whether no nonzero digits were dropped from {@code mantissa}. */
+    private boolean exact;
+    
+    /** Buffer reused for the rare numbers that need a full parse. */
+    private final StringBuilder slowPath = new StringBuilder();
+    
+    /** Whether {@code reset} reads every token into the buffer. */
+    private boolean buffered;
+    
+    /** Whether {@code next} replays tokens from the buffer. */
+    private boolean replaying;
+    
+    /** The kinds of the buffered tokens. */
+    private int[] tokenKinds;
+    
+    /** The start indices of the buffered tokens. */
+    private int[] tokenStarts;
+    
+    /** The end indices of the buffered tokens. */
+    private int[] tokenEnds;
+    
+    /** The values of the buffered tokens, if they are numbers. */
+    private double[] tokenNumbers;
+    
+    /** The number of buffered tokens, including the final {@code END}. */
+    private int tokenCount;
+    
+    /** The index of the next buffered token to replay. */
+    private int nextToken;
+    
+    /** The time the last buffered reset spent reading tokens. */
+    private long lexNanos;
+    
+    /** Constructs an {@code ExpressionLexer} object with no input. */
+    public ExpressionLexer()
+    {
+        reset("");
+    }
+    
+    /**
+     * Resets this lexer to read tokens from the beginning of the specified
+     * expression, without splitting off parentheses.
+     *
+     * @param input the expression to read tokens from
+     */
+    public void reset(CharSequence input)
+    {
+        reset(input, false);
+    }
+    
+    /**
+     * Resets this lexer to read tokens from the beginning of the specified
+     * expression.
+     *
+     * @param input       the expression to read tokens from
+     * @param parentheses whether parentheses are tokens of their own
+     */
+    public void reset(CharSequence input, boolean parentheses)
+    {
+        reset(input, parentheses, null);
+    }
+    
+    /**
+     * Resets this lexer to read tokens from the beginning of the specified
+     * expression, splitting tokens at the specified operators even where they
+     * are not separated by whitespace. Parentheses are tokens of their own.
+     *
+     * @param input     the expression to read tokens from
+     * @param operators the operators to split tokens at
+     */
+    public void reset(CharSequence input, SymbolTable<?> operators)
+    {
+        reset(input, true, operators);
+    }
+    
+    /**
+     * Resets this lexer to read tokens from the beginning of the specified
+     * expression.
+     *
+     * @param input       the expression to read tokens from
+     * @param parentheses whether parentheses are tokens of their own
+     * @param operators   the operators to split tokens at, or {@code null}
+     *                    to separate tokens by whitespace only
+     */
+    private void reset(CharSequence input, boolean parentheses,
+                       SymbolTable<?> operators)
+    {
+        this.input = input;
+        reader = null;
+        this.parentheses = parentheses;
+        this.operators = operators;
+        operandExpected = true;
+        position = start = end = 0;
+        number = Double.NaN;
+        replaying = false;
+        lexNanos = 0;
+        if (buffered && operators == null) {
+            readAll();
+        }
+    }
+    
+    /**
+     * Resets this lexer to read tokens from the specified reader, from its
+     * current position to its end. Characters are read as tokens are asked
+     * for, and the reader is neither closed nor read past its end. Tokens
+     * from a reader are always read one at a time, even if this lexer is
+     * set to be buffered.
+     * <p>
+     * Since {@code next} cannot throw {@code IOException}, an error reading
+     * from the reader is thrown from it as an {@code UncheckedIOException}
+     * wrapping the original exception.
+     *
+     * @param input       the reader to read tokens from
+     * @param parentheses whether parentheses are tokens of their own
+     */
+    public void reset(Reader input, boolean parentheses)
+    {
+        if (window == null) {
+            window = new char[INITIAL_WINDOW_SIZE];
+        }
+        this.input = CharBuffer.wrap(window, 0, 0);
+        reader = input;
+        this.parentheses = parentheses;
+        operators = null;
+        position = start = end = 0;
+        number = Double.NaN;
+        replaying = false;
+    }
+    
+    /**
+     * Sets whether this lexer reads every token of an expression as soon as
+     * it is reset, rather than one at a time as they are asked for. The
+     * tokens reported are the same either way. A lexer splitting tokens at
+     * operators still reads them one at a time, but times each one.
+     *
+     * @param buffered whether to read every token when reset
+     */
+    void setBuffered(boolean buffered)
+    {
+        if (buffered && tokenKinds == null) {
+            tokenKinds = new int[INITIAL_BUFFER_SIZE];
+            tokenStarts = new int[INITIAL_BUFFER_SIZE];
+            tokenEnds = new int[INITIAL_BUFFER_SIZE];
+            tokenNumbers = new double[INITIAL_BUFFER_SIZE];
+        }
+        this.buffered = buffered;
+    }
+    
+    /**
+     * Returns the time spent reading the tokens of the current expression,
+     * in nanoseconds: the time the last reset spent reading them into the
+     * buffer or, for a lexer splitting tokens at operators, the time spent
+     * reading those asked for so far. Only meaningful while this lexer is
+     * buffered.
+     *
+     * @return the time spent reading tokens, in nanoseconds
+     */
+    long lexNanos()
+    {
+        return lexNanos;
+    }
+    
+    /**
+     * Sets whether an operand is expected next, and so whether a sign
+     * followed by a numeric literal is read as a signed numeric literal or
+     * as an operator, when splitting tokens at operators. An operand is
+     * expected at the start of an expression, and this is reset to {@code
+     * true} whenever this lexer is.
+     *
+     * @param operandExpected whether an operand is expected next
+     */
+    public void expectOperand(boolean operandExpected)
+    {
+        this.operandExpected = operandExpected;
+    }
+    
+    /**
+     * Advances to the next token of the expression and returns its kind, or
+     * {@code END} if there are no more tokens.
+     *
+     * @return the kind of the next token, or {@code END} if there are no more
+     *         tokens
+     */
+    public int next()
+    {
+        if (replaying) {
+            return replay();
+        } else if (buffered && operators != null) {
+            long startTime = System.nanoTime();
+            int kind = read();
+            lexNanos += System.nanoTime() - startTime;
+            return kind;
+        }
+        return read();
+    }
+    
+    /**
+     * Reads the next token of the expression and returns its kind, or {@code
+     * END} if there are no more tokens.
+     *
+     * @return the kind of the next token, or {@code END} if there are no more
+     *         tokens
+     */
+    private int read()
+    {
+        CharSequence input = this.input;
+        int length = input.length();
+        int i = position;
+        while (true) {
+            while (i < length && Character.isWhitespace(input.charAt(i))) {
+                ++i;
+            }
+            if (i < length || !refill(i)) {
+                break;
+            }
+            input = this.input; // only whitespace was discarded
+            length = input.length();
+            i = 0;
+        }
+        start = i;
+        if (parentheses && i < length) {
+            char c = input.charAt(i);
+            if (c == '(' || c == ')') {
+                end = position = i + 1;
+                return c == '(' ? LEFT_PARENTHESIS : RIGHT_PARENTHESIS;
+            }
+        }
+        if (operators != null && i < length) {
+            return split(input, i, length);
+        }
+        while (true) {
+            while (i < length && !isDelimiter(input.charAt(i))) {
+                ++i;
+            }
+            if (i < length || !refill(start)) {
+                break;
+            }
+            input = this.input; // the token so far now starts the window
+            length = input.length();
+            i -= start;
+            start = 0;
+        }
+        end = position = i;
+        if (start == end) {
+            return END;
+        } else if (scanNumber(start, end)) {
+            return NUMBER;
+        } else if (end - start == 3 && input.charAt(start) == 'a' &&
+                input.charAt(start + 1) == 'n' &&
+                input.charAt(start + 2) == 's') {
+            return ANSWER;
+        }
+        return WORD;
+    }
+    
+    /**
+     * Advances past the token starting at the specified index of an
+     * expression whose tokens are split at operators, and returns its kind.
+     * The token is the longest of the operator, the numeric literal and the
+     * word starting at the index, so it is found without looking past its
+     * last character.
+     *
+     * @param  input  the expression being split into tokens
+     * @param  i      the index of the first character of the token
+     * @param  length the length of the expression
+     * @return        the kind of the token
+     */
+    private int split(CharSequence input, int i, int length)
+    {
+        char c = input.charAt(i);
+        int to = i;
+        if (isDigit(c) || c == '.' ||
+                (operandExpected && (c == '+' || c == '-'))) {
+            to = numberEnd(i, length);
+        } else if (Character.isLetter(c) || c == '_') {
+            do {
+                c = ++to < length ? input.charAt(to) : ' ';
+            } while (Character.isLetterOrDigit(c) || c == '_');
+        }
+        int operatorEnd = operators.match(input, i, length);
+        if (operatorEnd > i && operatorEnd >= to) {
+            end = position = operatorEnd;
+            return WORD;
+        }
+        end = position = to > i ? to : i + 1; // a character starting nothing
+        if (scanNumber(i, end)) {
+            return NUMBER; // also "NaN" and "Infinity" read as words
+        } else if (regionEquals(i, end, "ans")) {
+            return ANSWER;
+        }
+        return WORD;
+    }
+    
+    /**
+     * Returns the index after the longest numeric literal starting at the
+     * specified index, or the index itself if no numeric literal starts
+     * there. The literal is in any of the forms {@code scanNumber} accepts.
+     *
+     * @param  from   the index of the first character of the literal
+     * @param  length the length of the expression
+     * @return        the index after the longest numeric literal starting at
+     *                {@code from}, or {@code from} if there is none
+     */
+    private int numberEnd(int from, int length)
+    {
+        CharSequence input = this.input;
+        int i = from;
+        char c = input.charAt(i);
+        if (c == '+' || c == '-') {
+            if (++i == length) {
+                return from;
+            }
+            c = input.charAt(i);
+        }
+        if (c == 'N' || c == 'I') {
+            int to = Math.min(i + (c == 'N' ? 3 : 8), length);
+            return scanNonNumber(i, to, false) ? to : from;
+        } else if (c == '0' && i + 1 < length &&
+                (input.charAt(i + 1) | 0x20) == 'x') {
+            int to = hexNumberEnd(i + 2, length);
+            if (to > 0) {
+                return to;
+            }
+        }
+        
+        // integer part, either plain or with "," group separators
+        int intStart = i;
+        while (i < length && isDigit(input.charAt(i))) {
+            ++i;
+        }
+        int intDigits = i - intStart;
+        if (intDigits > 0 && intDigits <= 3 && input.charAt(intStart) != '0') {
+            while (i + 4 <= length && input.charAt(i) == ',' &&
+                    isDigit(input.charAt(i + 1)) &&
+                    isDigit(input.charAt(i + 2)) &&
+                    isDigit(input.charAt(i + 3))) {
+                i += 4;
+            }
+        }
+        
+        // fraction part
+        int fracDigits = 0;
+        if (i < length && input.charAt(i) == '.') {
+            int j = i + 1;
+            while (j < length && isDigit(input.charAt(j))) {
+                ++j;
+            }
+            fracDigits = j - i - 1;
+            if (intDigits > 0 || fracDigits > 0) {
+                i = j;
+            }
+        }
+        if (intDigits == 0 && fracDigits == 0) {
+            return from;
+        }
+        
+        // exponent part, left to the next token if it has no digits
+        if (i < length && (input.charAt(i) | 0x20) == 'e') {
+            int j = i + 1;
+            if (j < length && (input.charAt(j) == '+' ||
+                               input.charAt(j) == '-')) {
+                ++j;
+            }
+            int expStart = j;
+            while (j < length && isDigit(input.charAt(j))) {
+                ++j;
+            }
+            if (j > expStart) {
+                i = j;
+            }
+        }
+        return i;
+    }
+    
+    /**
+     * Returns the index after the hexadecimal floating point literal whose
+     * digits start at the specified index, or -1 if they do not form one.
+     *
+     * @param  digits the index of the first character after {@code "0x"}
+     * @param  length the length of the expression
+     * @return        the index after the hexadecimal literal, or -1 if there
+     *                is none
+     */
+    private int hexNumberEnd(int digits, int length)
+    {
+        CharSequence input = this.input;
+        int i = digits;
+        while (i < length && isHexDigit(input.charAt(i))) {
+            ++i;
+        }
+        if (i == length || input.charAt(i) != '.') {
+            return -1;
+        }
+        int fraction = ++i;
+        while (i < length && isHexDigit(input.charAt(i))) {
+            ++i;
+        }
+        if (i == fraction || i == length ||
+                (input.charAt(i) | 0x20) != 'p') {
+            return -1;
+        }
+        if (++i < length && (input.charAt(i) == '+' ||
+                             input.charAt(i) == '-')) {
+            ++i;
+        }
+        int exponent = i;
+        while (i < length && isAsciiDigit(input.charAt(i))) {
+            ++i;
+        }
+        return i == exponent ? -1 : i;
+    }
+    
+    /**
+     * Discards the characters of the window before the specified index and
+     * reads more characters from the reader after those kept, growing the
+     * window if it is full. Indices into the window from before the call are
+     * shifted down by {@code keep}, and are the caller's to adjust.
+     *
+     * @param  keep                 the index of the first character to
+     *                              keep
+     * @return                      {@code true} if characters were discarded
+     *                              or read; {@code false} if the input is a
+     *                              {@code CharSequence} or the reader has
+     *                              reached its end
+     * @throws UncheckedIOException if an I/O error occurs
+     */
+    private boolean refill(int keep)
+    {
+        if (reader == null) {
+            return false;
+        }
+        int kept = input.length() - keep;
+        if (kept == window.length) { // a single token fills the window
+            window = Arrays.copyOf(window, window.length * 2);
+        } else {
+            System.arraycopy(window, keep, window, 0, kept);
+        }
+        int count;
+        try {
+            count = reader.read(window, kept, window.length - kept);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (count < 0) {
+            reader = null;
+            count = 0;
+        }
+        input = CharBuffer.wrap(window, 0, kept + count);
+        return keep > 0 || count > 0;
+    }
+    
+    /**
+     * Reads every token of the expression into the buffer, up to and
+     * including {@code END}, and rewinds to replay them.
+     */
+    private void readAll()
+    {
+        long startTime = System.nanoTime();
+        tokenCount = 0;
+        int kind;
+        do {
+            kind = read();
+            if (tokenCount == tokenKinds.length) {
+                int length = tokenCount * 2;
+                tokenKinds = Arrays.copyOf(tokenKinds, length);
+                tokenStarts = Arrays.copyOf(tokenStarts, length);
+                tokenEnds = Arrays.copyOf(tokenEnds, length);
+                tokenNumbers = Arrays.copyOf(tokenNumbers, length);
+            }
+            tokenKinds[tokenCount] = kind;
+            tokenStarts[tokenCount] = start;
+            tokenEnds[tokenCount] = end;
+            tokenNumbers[tokenCount] = number;
+            ++tokenCount;
+        } while (kind != END);
+        position = start = end = 0;
+        number = Double.NaN;
+        nextToken = 0;
+        replaying = true;
+        lexNanos = System.nanoTime() - startTime;
+    }
+    
+    /**
+     * Advances to the next buffered token and returns its kind. Once the
+     * final {@code END} is reached, it is returned again on every call.
+     *
+     * @return the kind of the next buffered token
+     */
+    private int replay()
+    {
+        int i = nextToken;
+        if (i < tokenCount - 1) {
+            nextToken = i + 1;
+        }
+        start = tokenStarts[i];
+        end = position = tokenEnds[i];
+        number = tokenNumbers[i];
+        return tokenKinds[i];
+    }
+    
+    /**
+     * Returns the value of the current token, which must be a number.
+     *
+     * @return the value of the current token
+     */
+    public double number()
+    {
+        return number;
+    }
+    
+    /**
+     * Returns the value associated with the current token in the specified
+     * table, or {@code null} if the table does not contain the token.
+     *
+     * @param  <V>     the type of values in the table
+     * @param  symbols the table to look the current token up in
+     * @return         the value associated with the current token, or {@code
+     *                 null} if the table does not contain the token
+     */
+    public <V> V lookup(SymbolTable<V> symbols)
+    {
+        return symbols.get(input, start, end);
+    }
+    
+    /**
+     * Returns {@code true} if the current token is the specified string;
+     * {@code false} otherwise.
+     *
+     * @param  token the string to compare the current token to
+     * @return       {@code true} if the current token is the specified string;
+     *               {@code false} otherwise
+     */
+    public boolean tokenEquals(String token)
+    {
+        return regionEquals(start, end, token);
+    }
+    
+    /**
+     * Checks whether the characters between the specified indices form a
+     * numeric literal, storing its value in {@code number} if they do.
+     *
+     * @param  from the index of the first character of the token
+     * @param  to   the index after the last character of the token
+     * @return      {@code true} if the token is a numeric literal; {@code
+     *              false} otherwise
+     */
+    private boolean scanNumber(int from, int to)
+    {
+        CharSequence input = this.input;
+        int i = from;
+        char c = input.charAt(i);
+        boolean negative = c == '-';
+        if (negative || c == '+') {
+            if (++i == to) {
+                return false;
+            }
+            c = input.charAt(i);
+        }
+        if (c == 'N' || c == 'I') {
+            return scanNonNumber(i, to, negative);
+        } else if (c == '0' && i + 1 < to &&
+                (input.charAt(i + 1) | 0x20) == 'x') {
+            return scanHexNumber(from, i + 2, to);
+        }
+        
+        mantissa = 0;
+        digits = 0;
+        exponent = 0;
+        exact = true;
+        
+        // integer part, either plain or with "," group separators
+        int intStart = i;
+        while (i < to && isDigit(c = input.charAt(i))) {
+            addDigit(c, false);
+            ++i;
+        }
+        int intDigits = i - intStart;
+        if (i < to && c == ',') {
+            if (intDigits == 0 || intDigits > 3 ||
+                    input.charAt(intStart) == '0') {
+                return false;
+            }
+            while (i < to && input.charAt(i) == ',') {
+                if (i + 4 > to) {
+                    return false;
+                }
+                for (int j = i + 1; j <= i + 3; ++j) {
+                    if (!isDigit(c = input.charAt(j))) {
+                        return false;
+                    }
+                    addDigit(c, false);
+                }
+                i += 4;
+            }
+            if (i < to && isDigit(input.charAt(i))) {
+                return false; // group with more than three digits
+            }
+        }
+        
+        // fraction part
+        int fracDigits = 0;
+        if (i < to && input.charAt(i) == '.') {
+            ++i;
+            while (i < to && isDigit(c = input.charAt(i))) {
+                addDigit(c, true);
+                ++fracDigits;
+                ++i;
+            }
+        }
+        if (intDigits == 0 && fracDigits == 0) {
+            return false;
+        }
+        
+        // exponent part
+        if (i < to && (input.charAt(i) | 0x20) == 'e') {
+            boolean negativeExponent = false;
+            if (++i < to && ((c = input.charAt(i)) == '+' || c == '-')) {
+                negativeExponent = c == '-';
+                ++i;
+            }
+            int expStart = i;
+            int value = 0;
+            while (i < to && isDigit(c = input.charAt(i))) {
+                value = Math.min(value * 10 + digit(c), 100_000);
+                ++i;
+            }
+            if (i == expStart) {
+                return false;
+            }
+            exponent += negativeExponent ? -value : value;
+        }
+        if (i != to) {
+            return false;
+        }
+        
+        double value;
+        if (mantissa == 0) {
+            value = 0.0;
+        } else if (exact && mantissa <= MAX_EXACT_INTEGER &&
+                Math.abs(exponent) < POWERS_OF_TEN.length) {
+            // both factors are exact, so the result is correctly rounded
+            value = exponent < 0 ? mantissa / POWERS_OF_TEN[-exponent] :
+                    mantissa * POWERS_OF_TEN[exponent];
+        } else {
+            long bits = eiselLemire(mantissa, exponent);
+            if (bits < 0 ||
+                    !exact && bits != eiselLemire(mantissa + 1, exponent)) {
+                return parseSlowly(from, to); // too close to call
+            }
+            value = Double.longBitsToDouble(bits);
+        }
+        number = negative ? -value : value;
+        return true;
+    }
+    
+    /**
+     * Returns the bits of the {@code double} closest to the specified
+     * mantissa times ten to the power of the specified exponent, or -1 if
+     * that cannot be decided quickly. This is the Eisel-Lemire algorithm: the
+     * mantissa is multiplied by the 128 most significant bits of the power of
+     * five, which in all but rare cases near a halfway point between two
+     * {@code double} values determines the correctly rounded result. Results
+     * that are subnormal are also left undecided.
+     * <p>
+     * A number whose digits were truncated lies strictly between the
+     * results for the truncated mantissa and for one more than it, so it
+     * rounds to the same {@code double} whenever those two do.
+     *
+     * @param  mantissa the positive decimal mantissa, below {@code 2^63}
+     * @param  exponent the decimal exponent
+     * @return          the bits of the closest {@code double}, or -1 if it
+     *                  cannot be decided quickly
+     */
+    private static long eiselLemire(long mantissa, int exponent)
+    {
+        if (exponent < MIN_DECIMAL_EXPONENT) {
+            return 0L; // positive zero
+        } else if (exponent > MAX_DECIMAL_EXPONENT) {
+            return Double.doubleToRawLongBits(Double.POSITIVE_INFINITY);
+        }
+        int shift = Long.numberOfLeadingZeros(mantissa);
+        long m = mantissa << shift;
+        // floor(log2(10^exponent)) + 64, offset by the exponent bias
+        long binaryExponent = (217706L * exponent >> 16) + 64 + 1023 - shift;
+        long[] powers = PowersOfFive.BITS;
+        int index = 2 * (exponent - MIN_DECIMAL_EXPONENT);
+        long high = unsignedMultiplyHigh(m, powers[index]);
+        long low = m * powers[index];
+        if ((high & 0x1FF) == 0x1FF && Long.compareUnsigned(low + m, m) < 0) {
+            // the truncated low bits of the power could carry into the result
+            long lowHigh = unsignedMultiplyHigh(m, powers[index + 1]);
+            long lowLow = m * powers[index + 1];
+            long mergedLow = low + lowHigh;
+            if (Long.compareUnsigned(mergedLow, low) < 0) {
+                ++high;
+            }
+            if ((high & 0x1FF) == 0x1FF && mergedLow == -1L &&
+                    Long.compareUnsigned(lowLow + m, m) < 0) {
+                return -1L;
+            }
+            low = mergedLow;
+        }
+        long top = high >>> 63;
+        long significand = high >>> (top + 9); // 54 bits
+        binaryExponent -= 1 ^ top;
+        if (low == 0 && (high & 0x1FF) == 0 && (significand & 3) == 1) {
+            return -1L; // exactly halfway, which only a full parse can round
+        }
+        significand = (significand + (significand & 1)) >>> 1;
+        if (significand >>> 53 != 0) { // rounding carried into a new bit
+            significand >>>= 1;
+            ++binaryExponent;
+        }
+        if (binaryExponent < 1 || binaryExponent >= 0x7FF) {
+            return -1L; // subnormal or overflowing
+        }
+        return binaryExponent << 52 | significand & 0xFFFFFFFFFFFFFL;
+    }
+    
+    /**
+     * Returns the high 64 bits of the 128-bit product of the specified
+     * values, treating both as unsigned.
+     *
+     * @param  x the first value
+     * @param  y the second value
+     * @return   the high 64 bits of the unsigned product
+     */
+    private static long unsignedMultiplyHigh(long x, long y)
+    {
+        return Math.multiplyHigh(x, y) + (x >> 63 & y) + (y >> 63 & x);
+    }
+    
+    /**
+     * Adds the specified digit to the number being scanned. Digits beyond the
+     * capacity of {@code mantissa} are dropped, adjusting the exponent instead.
+     *
+     * @param c        the digit to add
+     * @param fraction whether the digit is after the decimal point
+     */
+    private void addDigit(char c, boolean fraction)
+    {
+        if (digits < MAX_DIGITS) {
+            mantissa = mantissa * 10 + digit(c);
+            if (mantissa != 0) { // leading zeros are not significant
+                ++digits;
+            }
+            if (fraction) {
+                --exponent;
+            }
+        } else {
+            if (!fraction) {
+                ++exponent;
+            }
+            exact &= digit(c) == 0;
+        }
+    }
+    
+    /**
+     * Checks whether the characters between the specified indices spell
+     * {@code "NaN"} or {@code "Infinity"}, storing the value in {@code number}
+     * if they do.
+     *
+     * @param  from     the index of the first character after the sign
+     * @param  to       the index after the last character of the token
+     * @param  negative whether the token had a negative sign
+     * @return          {@code true} if the token is a non-number literal;
+     *                  {@code false} otherwise
+     */
+    private boolean scanNonNumber(int from, int to, boolean negative)
+    {
+        if (regionEquals(from, to, "NaN")) {
+            number = Double.NaN;
+            return true;
+        } else if (regionEquals(from, to, "Infinity")) {
+            number = negative ? Double.NEGATIVE_INFINITY :
+                     Double.POSITIVE_INFINITY;
+            return true;
+        }
+        return false;
+    }
+    
+    /**
+     * Checks whether the characters between the specified indices form a
+     * hexadecimal floating point literal with a binary exponent, storing its
+     * value in {@code number} if they do.
+     *
+     * @param  from   the index of the first character of the token
+     * @param  digits the index of the first character after {@code "0x"}
+     * @param  to     the index after the last character of the token
+     * @return        {@code true} if the token is a hexadecimal literal;
+     *                {@code false} otherwise
+     */
+    private boolean scanHexNumber(int from, int digits, int to)
+    {
+        int i = digits;
+        while (i < to && isHexDigit(input.charAt(i))) {
+            ++i;
+        }
+        if (i == to || input.charAt(i) != '.') {
+            return false;
+        }
+        int fraction = ++i;
+        while (i < to && isHexDigit(input.charAt(i))) {
+            ++i;
+        }
+        if (i == fraction || i == to || (input.charAt(i) | 0x20) != 'p') {
+            return false;
+        }
+        if (++i < to && (input.charAt(i) == '+' || input.charAt(i) == '-')) {
+            ++i;
+        }
+        int exponent = i;
+        while (i < to && isAsciiDigit(input.charAt(i))) {
+            ++i;
+        }
+        return i != exponent && i == to && parseSlowly(from, to);
+    }
+    
+    /**
+     * Parses the already validated numeric literal between the specified
+     * indices with {@code Double.parseDouble}, storing its value in {@code
+     * number}. This is only needed for literals that cannot be converted
+     * exactly with a single multiplication or division.
+     *
+     * @param  from the index of the first character of the token
+     * @param  to   the index after the last character of the token
+     * @return      {@code true}
+     */
+    private boolean parseSlowly(int from, int to)
+    {
+        slowPath.setLength(0);
+        for (int i = from; i < to; ++i) {
+            char c = input.charAt(i);
+            if (c > 0x7F && Character.isDigit(c)) {
+                slowPath.append((char) ('0' + digit(c)));
+            } else if (c != ',') {
+                slowPath.append(c);
+            }
+        }
+        number = Double.parseDouble(slowPath.toString());
+        return true;
+    }
+    
+    /**
+     * Returns {@code true} if the characters between the specified indices are
+     * equal to the specified string; {@code false} otherwise.
+     *
+     * @param  from the index of the first character to compare
+     * @param  to   the index after the last character to compare
+     * @param  s    the string to compare to
+     * @return      {@code true} if the characters are equal to the string;
+     *              {@code false} otherwise
+     */
+    private boolean regionEquals(int from, int to, String s)
+    {
+        if (to - from != s.length()) {
+            return false;
+        }
+        for (int i = 0; i < s.length(); ++i) {
+            if (input.charAt(from + i) != s.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * Returns {@code true} if the specified character ends a token; {@code
+     * false} otherwise.
+     *
+     * @param  c the character to check
+     * @return   {@code true} if the specified character ends a token; {@code
+     *           false} otherwise
+     */
+    private boolean isDelimiter(char c)
+    {
+        return Character.isWhitespace(c) ||
+               (parentheses && (c == '(' || c == ')'));
+    }
+    
+    /**
+     * Returns {@code true} if the specified character is a decimal digit;
+     * {@code false} otherwise. Like {@code Scanner.nextDouble}, decimal
+     * numerals accept the digits of any script, such as the Arabic-Indic
+     * digits, and not only ASCII ones.
+     *
+     * @param  c the character to check
+     * @return   {@code true} if the character is a decimal digit; {@code
+     *           false} otherwise
+     */
+    private static boolean isDigit(char c)
+    {
+        return c >= '0' && c <= '9' || c > 0x7F && Character.isDigit(c);
+    }
+    
+    /**
+     * Returns the value of the specified decimal digit.
+     *
+     * @param  c the digit, for which {@code isDigit} is {@code true}
+     * @return   the value of the digit
+     */
+    private static int digit(char c)
+    {
+        return c <= '9' ? c - '0' : Character.digit(c, 10);
+    }
+    
+    /**
+     * Returns {@code true} if the specified character is an ASCII digit;
+     * {@code false} otherwise. Hexadecimal literals only accept ASCII digits.
+     *
+     * @param  c the character to check
+     * @return   {@code true} if the character is an ASCII digit; {@code false}
+     *           otherwise
+     */
+    private static boolean isAsciiDigit(char c)
+    {
+        return c >= '0' && c <= '9';
+    }
+    
+    /**
+     * Returns {@code true} if the specified character is an ASCII hexadecimal
+     * digit; {@code false} otherwise.
+     *
+     * @param  c the character to check
+     * @return   {@code true} if the character is an ASCII hexadecimal digit;
+     *           {@code false} otherwise
+     */
+    private static boolean isHexDigit(char c)
+    {
+        return isAsciiDigit(c) || (c | 0x20) >= 'a' && (c | 0x20) <= 'f';
+    }
+    
+    /**
+     * The table of powers of five used by the Eisel-Lemire algorithm, in a
+     * class of its own so that it is only computed once a number first needs
+     * it.
+     */
+    private static final class PowersOfFive
+    {
+        /**
+         * The powers of five from {@code MIN_DECIMAL_EXPONENT} to {@code
+         * MAX_DECIMAL_EXPONENT}, each as the high and then the low half of
+         * its 128 most significant bits. Negative powers are rounded up and
+         * positive ones down, as the Eisel-Lemire algorithm requires.
+         */
+        private static final long[] BITS = powersOfFive();
+        
+        /** Sole constructor, preventing instantiation. */
+        private PowersOfFive()
+        {
+        }
+        
+        /**
+         * Returns the 128 most significant bits of the powers of five from
+         * {@code MIN_DECIMAL_EXPONENT} to {@code MAX_DECIMAL_EXPONENT},
+         * computed exactly before being truncated. Negative powers are then
+         * rounded up by one, so that no power is ever underestimated by more
+         * than its last bit.
+         *
+         * @return the 128 most significant bits of the powers of five
+         */
+        private static long[] powersOfFive()
+        {
+            long[] powers = new long[2 *
+                    (MAX_DECIMAL_EXPONENT - MIN_DECIMAL_EXPONENT + 1)];
+            BigInteger power = BigInteger.ONE; // five to the power of q
+            for (int q = 0; q <= -MIN_DECIMAL_EXPONENT; ++q) {
+                int length = power.bitLength();
+                if (q <= MAX_DECIMAL_EXPONENT) {
+                    set(powers, q, length > 128 ?
+                            power.shiftRight(length - 128) :
+                            power.shiftLeft(128 - length));
+                }
+                if (q > 0) {
+                    set(powers, -q, BigInteger.ONE.shiftLeft(127 + length)
+                                    .divide(power).add(BigInteger.ONE));
+                }
+                power = power.multiply(BigInteger.valueOf(5));
+            }
+            return powers;
+        }
+        
+        /**
+         * Stores the specified 128 bits as the power of five with the
+         * specified exponent in the specified table.
+         *
+         * @param powers   the table of powers of five
+         * @param exponent the exponent of the power of five
+         * @param bits     the 128 most significant bits of the power of five
+         */
+        private static void set(long[] powers, int exponent, BigInteger bits)
+        {
+            int index = 2 * (exponent - MIN_DECIMAL_EXPONENT);
+            powers[index] = bits.shiftRight(64).longValue();
+            powers[index + 1] = bits.longValue();
+        }
+    }
+}
\ No newline at end of file
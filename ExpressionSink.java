@@ -0,0 +1,57 @@
+/**
+ * The {@code ExpressionSink} interface describes classes that receive the
+ * operands and operators of a parsed expression. Whatever the notation of the
+ * input, a parser reports them to the sink in postfix order, so a sink can
+ * evaluate the expression immediately, compile it for later evaluation, or
+ * otherwise process it without knowing how it was written.
+ * <p>
+ * A sink keeps track of how many operands are available to the next operator,
+ * and parsers are expected to check this before reporting an operator.
+ *
+ * @author Kevin Zhu
+ */
+public interface ExpressionSink
+{
+    /**
+     * Receives a numeric literal.
+     *
+     * @param value the value of the literal
+     */
+    void number(double value);
+    
+    /** Receives a reference to the last answer, {@code "ans"}. */
+    void answer();
+    
+    /**
+     * Receives a token that is neither a number, {@code "ans"} nor an
+     * operator, returning {@code true} if it is a variable known to this
+     * sink. Variables are received as operands.
+     *
+     * @param  tokens the lexer positioned at the token
+     * @return        {@code true} if the token is a variable known to this
+     *                sink; {@code false} otherwise
+     */
+    boolean variable(ExpressionLexer tokens);
+    
+    /**
+     * Receives a unary operator, to be applied to the most recent operand.
+     *
+     * @param operator the operator, resolved by the parsing calculator
+     */
+    void unary(Operator operator);
+    
+    /**
+     * Receives a binary operator, to be applied to the two most recent
+     * operands (left to right).
+     *
+     * @param operator the operator, resolved by the parsing calculator
+     */
+    void binary(Operator operator);
+    
+    /**
+     * Returns the number of operands available to the next operator.
+     *
+     * @return the number of operands available to the next operator
+     */
+    int size();
+}
\ No newline at end of file
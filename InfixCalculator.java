@@ -7,6 +7,24 @@ import java.util.function.*;
  * expressions using default or client-provided mappings from operators to their
  * associated functions.
  * <p>
+ * Tokens need not be separated by whitespace: the lexer splits them at the
+ * longest operator symbol matching the current operator mappings, so {@code
+ * "2*sin(1)+3"} is read just as {@code "2 * sin ( 1 ) + 3"} is. Words such as
+ * variable names are then runs of letters, digits and underscores, and a
+ * sign is part of a number only where an operand is expected, as in {@code
+ * "2*-3"}.
+ * <p>
+ * A symbol mapped to both a unary and a binary operator, such as a negation
+ * added as {@code "-"} alongside subtraction, is read as the binary operator
+ * after an operand and as the unary operator where an operand is expected,
+ * so {@code "5 - 3"} subtracts while {@code "- 3"} negates.
+ * <p>
+ * The order in which operators apply is decided by the precedence and
+ * associativity of each operator, which clients may also provide for their
+ * own operators. Whenever either map changes, both are compiled into the
+ * ranks of the calculator settings, so parsing compares operators by id
+ * without looking up their symbols.
+ * <p>
  * An {@code InfixCalculator} object tracks the current operator mappings and
  * the last answer returned through the {@code evaluate} method, which can be
  * accessed in expressions with the string {@code "ans"}. For this reason,
@@ -31,7 +49,7 @@ public class InfixCalculator extends AbstractCalculator
             Map.entry("/", 2), Map.entry("%", 2), Map.entry("+", 1),
             Map.entry("-", 1)
         );
-
+    
     /**
      * A default map from operators to their associativity values ({@code true}
      * for left associativity, {@code false} for right).
@@ -53,16 +71,50 @@ public class InfixCalculator extends AbstractCalculator
             Map.entry("%", true), Map.entry("+", true), Map.entry("-", true)
         );
     
-    /** The calculator this calculator delegates calculations to. */
-    private Calculator<String> postfixCalc;
+    /** The marker for a left parenthesis on the operator stack. */
+    private static final int LEFT_PARENTHESIS = CalculatorSettings.NO_OPERATOR;
     
     /**
      * Constructs an {@code InfixCalculator} object with the default operator
-     * mappings from the {@code AbstractCalculator} class.
+     * mappings from the {@code AbstractCalculator} class and the default
+     * operator precedences and associativity.
      */
     public InfixCalculator()
     {
-        postfixCalc = new PostfixCalculator();
+        setOpPrecedences(DEFAULT_OP_PRECEDENCES);
+        setOpAssociativity(DEFAULT_OP_ASSOCIATIVITY);
+    }
+    
+    /**
+     * Constructs an {@code InfixCalculator} object with the specified operator
+     * mappings, precedences and associativity. Once set, these cannot be
+     * modified except through the {@code setUnaryOps}, {@code setBinaryOps},
+     * {@code setOpPrecedences} and {@code setOpAssociativity} methods.
+     *
+     * @param  unaryOps                 the map from unary operators to their
+     *                                  associated functions to use in this
+     *                                  calculator
+     * @param  binaryOps                the map from binary operators to their
+     *                                  associated functions to use in this
+     *                                  calculator
+     * @param  opPrecedences            the map from operators to their
+     *                                  precedence values
+     * @param  opAssociativity          the map from operators to their
+     *                                  associativity values ({@code true}
+     *                                  for left associativity, {@code false}
+     *                                  for right)
+     * @throws IllegalArgumentException if a precedence value is greater than
+     *                                  {@code MAX_PRECEDENCE} in magnitude
+     */
+    public InfixCalculator(Map<String, DoubleUnaryOperator> unaryOps,
+                           Map<String, DoubleBinaryOperator> binaryOps,
+                           Map<String, Integer> opPrecedences,
+                           Map<String, Boolean> opAssociativity)
+    {
+        setUnaryOps(unaryOps);
+        setBinaryOps(binaryOps);
+        setOpPrecedences(opPrecedences);
+        setOpAssociativity(opAssociativity);
     }
     
     /**
@@ -74,135 +126,271 @@ public class InfixCalculator extends AbstractCalculator
     @Override
     public double evaluate(String expression)
     {
-        expression = expression.replaceAll("[(]", " ( ")
-                               .replaceAll("[)]", " ) ");
-        StringBuilder output = new StringBuilder(expression.length() + 1);
-        Deque<String> operators = new ArrayDeque<>();
-        return postfixCalc.evaluate(
-                parseExpression(expression, output, operators) ?
-                output.toString() : ""); // "" sets last answer to Double.NaN
+        return super.evaluate(expression);
     }
     
     /**
-     * Processes the specified infix expression into its corresponding postfix
-     * expression using the specified {@code StringBuilder} as output and {@code
-     * Deque} as auxiliary storage. Returns the success value of the processing.
-     * If parsing is successful, {@code output} will hold the resulting postfix
-     * expression.
-     *
-     * @param  expression the input expression to evaluate
-     * @param  output     the output to build the postfix expression with
-     * @param  operators  the operator stack
-     * @return            {@code true} if the expression was successfully
-     *                    parsed; {@code false} otherwise
+     * {@inheritDoc}
+     * <p>
+     * This implementation reads expressions in infix notation in a single
+     * pass. Operators are reported as soon as they are popped from the
+     * operator stack, in the order they would appear in the corresponding
+     * postfix expression.
      */
-    private boolean parseExpression(String expression, StringBuilder output,
-                                    Deque<String> operators)
+    @Override
+    protected boolean parse(CharSequence expression,
+                            CalculatorSettings settings,
+                            EvaluationContext context, ExpressionSink sink)
     {
-        Scanner tokens = new Scanner(expression);
+        ExpressionLexer lexer = context.lexer();
+        int[] operators = context.pending(1);
+        int depth = 0; // the number of operators on the stack
+        lexer.reset(expression, settings.symbols());
         boolean numOkay = true; // flag for when it is legal to find a number
-        while (tokens.hasNext()) {
-            String operator; // declaration simplifies if-else branch structure
-            if (tokens.hasNextDouble() && numOkay) {
-                output.append(tokens.nextDouble()).append(' ');
+        for (int token; (token = lexer.next()) != ExpressionLexer.END;
+                lexer.expectOperand(numOkay)) { // tells signs from operators
+            int operator; // declaration simplifies if-else branch structure
+            if (token == ExpressionLexer.NUMBER && numOkay) {
+                sink.number(lexer.number());
                 numOkay = false;
-            } else if ((operator = tokens.next()).equals("ans") && numOkay) {
-                output.append(operator).append(' ');
+            } else if (token == ExpressionLexer.ANSWER && numOkay) {
+                sink.answer();
                 numOkay = false;
-            } else if (DEFAULT_OP_PRECEDENCES.containsKey(operator)) {
-                while (!canPush(operator, operators)) {
-                    output.append(operators.pop()).append(' ');
+            } else if (token == ExpressionLexer.WORD && numOkay &&
+                    sink.variable(lexer)) {
+                numOkay = false;
+            } else if ((operator = settings.operator(lexer)) !=
+                    CalculatorSettings.NO_OPERATOR) {
+                // binary after an operand, or where no unary form exists
+                boolean binary = settings.isBinary(operator) &&
+                                 (!numOkay || !settings.isUnary(operator));
+                while (!numOkay && depth > 0 &&
+                        !canPush(operator, operators[depth - 1], settings)) {
+                    if (!apply(operators[--depth], settings, sink)) {
+                        return context.fail(
+                                CalculatorMetrics.ErrorCause.STACK_UNDERFLOW);
+                    }
+                }
+                if (depth == operators.length) {
+                    operators = context.pending(depth + 1);
+                }
+                // the low bit is set for the binary form of the operator
+                operators[depth++] = operator << 1 | (binary ? 1 : 0);
+                numOkay = numOkay || binary;
+            } else if (token == ExpressionLexer.LEFT_PARENTHESIS && numOkay) {
+                if (depth == operators.length) {
+                    operators = context.pending(depth + 1);
+                }
+                operators[depth++] = LEFT_PARENTHESIS;
+            } else if (token == ExpressionLexer.RIGHT_PARENTHESIS) {
+                depth = closeParenthesis(operators, depth, numOkay, settings,
+                                         context, sink);
+                if (depth < 0) {
+                    return false; // illegal parenthesis
                 }
-                operators.push(operator);
-                numOkay = numOkay || getBinaryOps().containsKey(operator);
-            } else if (!isLegalParenthesis(operator, operators,
-                                           output, numOkay)) {
-                return false; // invalid token
+            } else {
+                return context.fail(CalculatorMetrics.ErrorCause.BAD_TOKEN);
             }
         }
-        while (!operators.isEmpty()) {
-            output.append(operators.pop()).append(' ');
+        while (depth > 0) {
+            int operator = operators[--depth];
+            if (operator == LEFT_PARENTHESIS) {
+                return context.fail( // no mismatched "("s allowed
+                        CalculatorMetrics.ErrorCause.MISMATCHED_PARENTHESIS);
+            } else if (!apply(operator, settings, sink)) {
+                return context.fail(
+                        CalculatorMetrics.ErrorCause.STACK_UNDERFLOW);
+            }
         }
-        return output.indexOf("(") < 0; // no mismatched "("s allowed
+        return sink.size() == 1 ||
+               context.fail(CalculatorMetrics.ErrorCause.STACK_UNDERFLOW);
     }
     
     /**
-     * Returns {@code true} if the specified operator can be pushed into the
-     * operator stack according to precedence and associativity rules; {@code
-     * false} otherwise.
+     * Returns {@code true} if the specified operator can be pushed onto the
+     * specified operator at the top of the operator stack according to
+     * precedence and associativity rules; {@code false} otherwise. Both rules
+     * are read from the ranks of the operators in the specified settings.
      *
-     * @param  operator  the operator to be pushed
-     * @param  operators the operator stack to push the operator onto
-     * @return           {@code true} if the specified operator can be pushed
-     *                   into the operator stack according to precedence and
-     *                   associativity rules; {@code false} otherwise
+     * @param  operator the id of the operator to be pushed
+     * @param  top      the entry at the top of the stack, or {@code
+     *                  LEFT_PARENTHESIS}
+     * @param  settings the settings defining the operators
+     * @return          {@code true} if the specified operator can be pushed
+     *                  onto the operator stack according to precedence and
+     *                  associativity rules; {@code false} otherwise
      */
-    private boolean canPush(String operator, Deque<String> operators)
+    private static boolean canPush(int operator, int top,
+                                   CalculatorSettings settings)
     {
-        if (operators.isEmpty() || operators.peek().equals("(")) {
-            return true;
+        return top == LEFT_PARENTHESIS ||
+               settings.rank(operator) > (settings.rank(top >>> 1) & ~1);
+    }
+    
+    /**
+     * Reports the operator of the specified operator stack entry to the
+     * specified sink in the form, unary or binary, chosen when it was pushed,
+     * returning {@code false} if there are not enough operands for it.
+     *
+     * @param  entry    the entry of the operator stack, holding the id of the
+     *                  operator shifted left by one bit, with the low bit set
+     *                  for its binary form
+     * @param  settings the settings defining the operators
+     * @param  sink     the sink to report the operator to
+     * @return          {@code true} if the operator was reported; {@code
+     *                  false} if there were not enough operands for it
+     */
+    private static boolean apply(int entry, CalculatorSettings settings,
+                                 ExpressionSink sink)
+    {
+        int operator = entry >>> 1;
+        if ((entry & 1) != 0) {
+            if (sink.size() < 2) {
+                return false;
+            }
+            sink.binary(settings.binary(operator));
+        } else {
+            if (sink.size() < 1) {
+                return false;
+            }
+            sink.unary(settings.unary(operator));
         }
-        int precedence = DEFAULT_OP_PRECEDENCES.get(operator);
-        int otherPrecedence = DEFAULT_OP_PRECEDENCES.get(operators.peek());
-        return precedence > otherPrecedence || (precedence == otherPrecedence &&
-                !DEFAULT_OP_ASSOCIATIVITY.get(operator));
+        return true;
     }
     
     /**
-     * Processes the specified string appropriately if it is a legal
-     * parenthesis, returning {@code true} if the parenthesis was legal and
-     * {@code false} if the string was not a parenthesis or the parenthesis was
-     * illegal.
+     * Processes a right parenthesis, reporting operators from the specified
+     * operator stack until a matching left parenthesis is found, and returns
+     * the number of operators left on the stack once the left parenthesis is
+     * popped, or -1 if the right parenthesis is illegal.
      * <p>
-     * Left parentheses are considered legal if they could be replaced by a
-     * number (as legal left parentheses are the beginning of a full numeric
-     * expression), whereas right parentheses pop the operator stack until a
-     * matching left parenthesis is found, making it legal.
+     * Right parentheses are considered illegal if a number could take their
+     * place, as then an operand is missing before them, or if no matching left
+     * parenthesis is found. If the right parenthesis is illegal, the cause is
+     * recorded in the specified context.
      *
-     * @param  operator  the string to process
      * @param  operators the operator stack
-     * @param  output    the output where the postfix expression is being built
+     * @param  depth     the number of operators on the stack
      * @param  numOkay   flag for if it is currently legal to encounter a number
-     * @return           {@code true} if the parenthesis was legal and
-     *                   {@code false} if the string was not a parenthesis or
-     *                   the parenthesis was illegal
+     * @param  settings  the settings defining the operators
+     * @param  context   the context to record the cause of errors in
+     * @param  sink      the sink to report operators to
+     * @return           the number of operators left on the stack, or -1 if
+     *                   the right parenthesis is illegal
      */
-    private boolean isLegalParenthesis(String operator, Deque<String> operators,
-                                       StringBuilder output, boolean numOkay)
+    private static int closeParenthesis(int[] operators, int depth,
+                                        boolean numOkay,
+                                        CalculatorSettings settings,
+                                        EvaluationContext context,
+                                        ExpressionSink sink)
     {
-        if (operator.equals("(")) {
-            operators.push(operator);
-            return numOkay;
-        } else if (operator.equals(")") && !numOkay) {
-            while (!operators.isEmpty() && !operators.peek().equals("(")) {
-                output.append(operators.pop()).append(' ');
+        if (numOkay) { // missing operand before ")"
+            context.fail(CalculatorMetrics.ErrorCause.STACK_UNDERFLOW);
+            return -1;
+        }
+        while (depth > 0 && operators[depth - 1] != LEFT_PARENTHESIS) {
+            if (!apply(operators[--depth], settings, sink)) {
+                context.fail(CalculatorMetrics.ErrorCause.STACK_UNDERFLOW);
+                return -1;
             }
-            if (!operators.isEmpty()) {
-                operators.pop();
-                return true;
-            } // else, "(" not found
         }
-        return false;
+        if (depth > 0) {
+            return depth - 1; // pops the "("
+        } // else, "(" not found
+        context.fail(CalculatorMetrics.ErrorCause.MISMATCHED_PARENTHESIS);
+        return -1;
     }
     
     /**
-     * {@inheritDoc}
-     * @throws UnsupportedOperationException unsupported operation
+     * Sets the current map from unary operators to their associated functions
+     * to the specified map. Operators without a precedence value bind as
+     * tightly as the default unary operators, and operators without an
+     * associativity value are right-associative, as unary operators must be.
+     *
+     * @param unaryOps the map to set the current map to
      */
     @Override
     public void setUnaryOps(Map<String, DoubleUnaryOperator> unaryOps)
     {
-        throw new UnsupportedOperationException();
+        super.setUnaryOps(unaryOps);
     }
     
     /**
-     * {@inheritDoc}
-     * @throws UnsupportedOperationException unsupported operation
+     * Sets the current map from binary operators to their associated functions
+     * to the specified map. Operators without a precedence value bind as
+     * tightly as the default unary operators, and operators without an
+     * associativity value are right-associative.
+     *
+     * @param binaryOps the map to set the current map to
      */
     @Override
     public void setBinaryOps(Map<String, DoubleBinaryOperator> binaryOps)
     {
-        throw new UnsupportedOperationException();
+        super.setBinaryOps(binaryOps);
+    }
+    
+    /**
+     * Returns an unmodifiable view of the current map from operators to their
+     * precedence values.
+     *
+     * @return an unmodifiable view of the current map from operators to their
+     *         precedence values
+     */
+    public Map<String, Integer> getOpPrecedences()
+    {
+        return getSettings().getOpPrecedences();
+    }
+    
+    /**
+     * Sets the current map from operators to their precedence values to the
+     * specified map. Operators with greater values bind more tightly, and
+     * operators missing from the map have {@code
+     * CalculatorSettings.DEFAULT_PRECEDENCE}, that of the default unary
+     * operators.
+     *
+     * @param  opPrecedences            the map to set the current map to
+     * @throws IllegalArgumentException if a precedence value is greater than
+     *                                  {@code
+     *                                  CalculatorSettings.MAX_PRECEDENCE} in
+     *                                  magnitude
+     */
+    public void setOpPrecedences(Map<String, Integer> opPrecedences)
+    {
+        for (Map.Entry<String, Integer> entry : opPrecedences.entrySet()) {
+            int precedence = entry.getValue();
+            if (precedence < -CalculatorSettings.MAX_PRECEDENCE ||
+                    precedence > CalculatorSettings.MAX_PRECEDENCE) {
+                throw new IllegalArgumentException("invalid precedence: " +
+                                                   entry);
+            }
+        }
+        updateSettings(settings -> settings.withOpPrecedences(opPrecedences));
+    }
+    
+    /**
+     * Returns an unmodifiable view of the current map from operators to their
+     * associativity values ({@code true} for left associativity, {@code
+     * false} for right).
+     *
+     * @return an unmodifiable view of the current map from operators to their
+     *         associativity values
+     */
+    public Map<String, Boolean> getOpAssociativity()
+    {
+        return getSettings().getOpAssociativity();
+    }
+    
+    /**
+     * Sets the current map from operators to their associativity values
+     * ({@code true} for left associativity, {@code false} for right) to the
+     * specified map. Operators missing from the map are right-associative.
+     *
+     * @param opAssociativity the map to set the current map to
+     */
+    public void setOpAssociativity(Map<String, Boolean> opAssociativity)
+    {
+        updateSettings(
+                settings -> settings.withOpAssociativity(opAssociativity));
     }
     
     /** {@inheritDoc} */
@@ -0,0 +1,138 @@
+import java.util.concurrent.atomic.*;
+
+/**
+ * The {@code LatencyHistogram} class counts durations in nanoseconds in
+ * buckets of logarithmically increasing width, so that percentiles can be
+ * read from it at any time. Durations below 16 nanoseconds each have a bucket
+ * of their own, and each power of two above that is split into 16 buckets of
+ * equal width, so a percentile read from the histogram is at most one
+ * sixteenth above the true value, whatever its magnitude.
+ * <p>
+ * Recording a duration takes a few shifts to find its bucket and a single
+ * atomic increment, with no locking and no allocation, so a histogram can be
+ * shared by any number of threads. A snapshot of the counts taken while other
+ * threads record is not atomic as a whole, but every count in it is exact.
+ *
+ * @author Kevin Zhu
+ */
+final class LatencyHistogram
+{
+    /** The number of bits resolving a duration within its power of two. */
+    private static final int SUB_BUCKET_BITS = 4;
+    
+    /** The number of buckets each power of two is split into. */
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    
+    /** The number of buckets, enough for every non-negative {@code long}. */
+    static final int BUCKETS = (Long.SIZE - SUB_BUCKET_BITS) * SUB_BUCKETS;
+    
+    /** The count of durations in each bucket. */
+    private final AtomicLongArray counts;
+    
+    /** Constructs an empty {@code LatencyHistogram} object. */
+    LatencyHistogram()
+    {
+        counts = new AtomicLongArray(BUCKETS);
+    }
+    
+    /**
+     * Counts the specified duration. Negative durations, which a clock going
+     * backwards could produce, are counted as zero.
+     *
+     * @param nanos the duration to count, in nanoseconds
+     */
+    void record(long nanos)
+    {
+        counts.incrementAndGet(bucket(Math.max(nanos, 0)));
+    }
+    
+    /**
+     * Returns a copy of the count of durations in each bucket.
+     *
+     * @return a copy of the count of durations in each bucket
+     */
+    long[] counts()
+    {
+        long[] copy = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; ++i) {
+            copy[i] = counts.get(i);
+        }
+        return copy;
+    }
+    
+    /** Removes all durations from this histogram. */
+    void clear()
+    {
+        for (int i = 0; i < BUCKETS; ++i) {
+            counts.set(i, 0);
+        }
+    }
+    
+    /**
+     * Returns the duration below or at which the specified percentage of the
+     * durations in the specified counts fall, rounded up to the highest
+     * duration of its bucket, or zero if there are no durations.
+     *
+     * @param  counts     the count of durations in each bucket
+     * @param  percentile the percentage of durations, from 0 to 100
+     * @return            the duration at the specified percentile, in
+     *                    nanoseconds
+     */
+    static long percentile(long[] counts, double percentile)
+    {
+        long total = 0;
+        for (long count : counts) {
+            total += count;
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+        long seen = 0;
+        int last = 0;
+        for (int i = 0; i < counts.length; ++i) {
+            if (counts[i] == 0) {
+                continue;
+            }
+            last = i;
+            seen += counts[i];
+            if (seen >= rank) {
+                return highestValue(i);
+            }
+        }
+        return highestValue(last);
+    }
+    
+    /**
+     * Returns the index of the bucket holding the specified duration.
+     *
+     * @param  nanos the non-negative duration, in nanoseconds
+     * @return       the index of the bucket holding the duration
+     */
+    static int bucket(long nanos)
+    {
+        if (nanos < SUB_BUCKETS) {
+            return (int) nanos;
+        }
+        int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(nanos);
+        int shift = exponent - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKETS +
+               (int) (nanos >>> shift) - SUB_BUCKETS;
+    }
+    
+    /**
+     * Returns the highest duration held by the specified bucket.
+     *
+     * @param  bucket the index of the bucket
+     * @return        the highest duration held by the bucket, in nanoseconds
+     */
+    static long highestValue(int bucket)
+    {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long lowest = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+}
\ No newline at end of file
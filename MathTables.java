@@ -0,0 +1,57 @@
+import java.math.*;
+
+/**
+ * The {@code MathTables} class holds the precomputed constants used by the
+ * static mathematical functions of the {@code Calculator} interface, which
+ * cannot declare private fields of its own.
+ *
+ * @author Kevin Zhu
+ */
+final class MathTables
+{
+    /** The largest whole number whose factorial is a finite {@code double}. */
+    static final int MAX_FACTORIAL = 170;
+    
+    /**
+     * The factorials of the whole numbers up to {@code MAX_FACTORIAL}, each
+     * rounded to the nearest {@code double}.
+     */
+    static final double[] FACTORIALS = factorials();
+    
+    /** The offset of the Lanczos approximation of the gamma function. */
+    static final double LANCZOS_G = 7;
+    
+    /** The coefficients of the Lanczos approximation for {@code LANCZOS_G}. */
+    static final double[] LANCZOS_COEFFICIENTS = {
+        0.99999999999980993, 676.5203681218851, -1259.1392167224028,
+        771.32342877765313, -176.61502916214059, 12.507343278686905,
+        -0.13857109526572012, 9.9843695780195716e-6, 1.5056327351493116e-7
+    };
+    
+    /** The square root of two times pi. */
+    static final double SQRT_TWO_PI = Math.sqrt(2 * Math.PI);
+    
+    /** Sole constructor, preventing instantiation. */
+    private MathTables()
+    {
+    }
+    
+    /**
+     * Returns the factorials of the whole numbers up to {@code MAX_FACTORIAL}.
+     * Each factorial is computed exactly before being rounded, so every entry
+     * is the closest {@code double} to the true value.
+     *
+     * @return the factorials of the whole numbers up to {@code MAX_FACTORIAL}
+     */
+    private static double[] factorials()
+    {
+        double[] factorials = new double[MAX_FACTORIAL + 1];
+        BigInteger product = BigInteger.ONE;
+        factorials[0] = 1;
+        for (int i = 1; i <= MAX_FACTORIAL; ++i) {
+            product = product.multiply(BigInteger.valueOf(i));
+            factorials[i] = product.doubleValue();
+        }
+        return factorials;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,199 @@
+import java.util.*;
+
+/**
+ * The {@code MetricsSnapshot} class holds the metrics recorded by a {@code
+ * CalculatorMetrics} object at one point in time. Snapshots are immutable, so
+ * they can be kept and compared with later ones, or read while the
+ * calculators they describe go on evaluating.
+ *
+ * @author Kevin Zhu
+ */
+public final class MetricsSnapshot
+{
+    /** The count and total time of each operator, by symbol. */
+    private final Map<String, Timing> operators;
+    
+    /** The count and total time of each phase. */
+    private final Map<CalculatorMetrics.Phase, Timing> phases;
+    
+    /** The count of errors of each cause. */
+    private final Map<CalculatorMetrics.ErrorCause, Long> errors;
+    
+    /** The count of evaluation latencies in each histogram bucket. */
+    private final long[] latencies;
+    
+    /** The number of evaluations. */
+    private final long evaluations;
+    
+    /**
+     * Constructs a {@code MetricsSnapshot} object from the specified parts,
+     * which become owned by the new object.
+     *
+     * @param operators the count and total time of each operator, by symbol
+     * @param phases    the count and total time of each phase
+     * @param errors    the count of errors of each cause
+     * @param latencies the count of evaluation latencies in each bucket of a
+     *                  {@code LatencyHistogram}
+     */
+    MetricsSnapshot(Map<String, Timing> operators,
+                    Map<CalculatorMetrics.Phase, Timing> phases,
+                    Map<CalculatorMetrics.ErrorCause, Long> errors,
+                    long[] latencies)
+    {
+        this.operators = Collections.unmodifiableMap(operators);
+        this.phases = Collections.unmodifiableMap(phases);
+        this.errors = Collections.unmodifiableMap(errors);
+        this.latencies = latencies;
+        long evaluations = 0;
+        for (long count : latencies) {
+            evaluations += count;
+        }
+        this.evaluations = evaluations;
+    }
+    
+    /**
+     * Returns an unmodifiable map from the symbol of each operator applied to
+     * the number of times it was applied and the total time spent in it, in
+     * order of symbol.
+     *
+     * @return the count and total time of each operator, by symbol
+     */
+    public Map<String, Timing> getOperators()
+    {
+        return operators;
+    }
+    
+    /**
+     * Returns an unmodifiable map from each phase of evaluation to the number
+     * of times it ran and the total time spent in it.
+     *
+     * @return the count and total time of each phase
+     */
+    public Map<CalculatorMetrics.Phase, Timing> getPhases()
+    {
+        return phases;
+    }
+    
+    /**
+     * Returns an unmodifiable map from each cause of error to the number of
+     * invalid expressions evaluated with that cause.
+     *
+     * @return the count of errors of each cause
+     */
+    public Map<CalculatorMetrics.ErrorCause, Long> getErrors()
+    {
+        return errors;
+    }
+    
+    /**
+     * Returns the number of evaluations, valid or not.
+     *
+     * @return the number of evaluations
+     */
+    public long getEvaluations()
+    {
+        return evaluations;
+    }
+    
+    /**
+     * Returns the latency below or at which the specified percentage of
+     * evaluations completed, or zero if there were no evaluations. The value
+     * is rounded up to the resolution of the histogram, which is within one
+     * sixteenth of the true value.
+     *
+     * @param  percentile               the percentage of evaluations, from 0
+     *                                  to 100
+     * @return                          the latency at the specified
+     *                                  percentile, in nanoseconds
+     * @throws IllegalArgumentException if {@code percentile} is not between 0
+     *                                  and 100
+     */
+    public long getLatencyPercentile(double percentile)
+    {
+        if (!(percentile >= 0 && percentile <= 100)) {
+            throw new IllegalArgumentException("invalid percentile: " +
+                                               percentile);
+        }
+        return LatencyHistogram.percentile(latencies, percentile);
+    }
+    
+    /** {@inheritDoc} */
+    @Override
+    public String toString()
+    {
+        StringBuilder s = new StringBuilder();
+        s.append("evaluations: ").append(evaluations);
+        if (evaluations > 0) {
+            s.append(", latency p50: ").append(getLatencyPercentile(50))
+             .append(" ns, p99: ").append(getLatencyPercentile(99))
+             .append(" ns, p99.9: ").append(getLatencyPercentile(99.9))
+             .append(" ns, max: ").append(getLatencyPercentile(100))
+             .append(" ns");
+        }
+        s.append(System.lineSeparator()).append("phases: ").append(phases);
+        s.append(System.lineSeparator()).append("errors: ").append(errors);
+        s.append(System.lineSeparator()).append("operators: ")
+         .append(operators);
+        return s.toString();
+    }
+    
+    /** The number of times something happened and the total time it took. */
+    public static final class Timing
+    {
+        /** The number of times it happened. */
+        private final long count;
+        
+        /** The total time it took, in nanoseconds. */
+        private final long totalNanos;
+        
+        /**
+         * Constructs a {@code Timing} object.
+         *
+         * @param count      the number of times it happened
+         * @param totalNanos the total time it took, in nanoseconds
+         */
+        Timing(long count, long totalNanos)
+        {
+            this.count = count;
+            this.totalNanos = totalNanos;
+        }
+        
+        /**
+         * Returns the number of times it happened.
+         *
+         * @return the number of times it happened
+         */
+        public long getCount()
+        {
+            return count;
+        }
+        
+        /**
+         * Returns the total time it took, in nanoseconds.
+         *
+         * @return the total time it took, in nanoseconds
+         */
+        public long getTotalNanos()
+        {
+            return totalNanos;
+        }
+        
+        /**
+         * Returns the mean time it took, in nanoseconds, or zero if it never
+         * happened.
+         *
+         * @return the mean time it took, in nanoseconds
+         */
+        public double getMeanNanos()
+        {
+            return count == 0 ? 0 : (double) totalNanos / count;
+        }
+        
+        /** {@inheritDoc} */
+        @Override
+        public String toString()
+        {
+            return count + " in " + totalNanos + " ns";
+        }
+    }
+}
\ No newline at end of file
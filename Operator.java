@@ -0,0 +1,183 @@
+import java.util.*;
+import java.util.function.*;
+
+/**
+ * The {@code Operator} class represents a unary or binary operator that has
+ * been resolved against the settings of a calculator. It carries the function
+ * of the operator along with any angle conversions the calculator's angle
+ * units require, so that applying it involves no further lookups.
+ * {@code Operator} objects are immutable.
+ *
+ * @author Kevin Zhu
+ */
+public final class Operator
+{
+    /** The default operator functions, mapped to their default symbols. */
+    private static final Map<Object, String> BUILTINS = builtins();
+    
+    /** The symbol of this operator. */
+    private final String symbol;
+    
+    /** The function of this operator, if it is unary. */
+    private final DoubleUnaryOperator unaryFunction;
+    
+    /** The function of this operator, if it is binary. */
+    private final DoubleBinaryOperator binaryFunction;
+    
+    /** Whether the operand is converted from degrees to radians. */
+    private final boolean degreesIn;
+    
+    /** Whether the result is converted from radians to degrees. */
+    private final boolean degreesOut;
+    
+    /** The default symbol of the function, if it is a default function. */
+    private final String builtin;
+    
+    /**
+     * Constructs a unary {@code Operator} object.
+     *
+     * @param symbol     the symbol of the operator
+     * @param function   the function of the operator
+     * @param degreesIn  whether the operand is converted from degrees to
+     *                   radians before applying the function
+     * @param degreesOut whether the result is converted from radians to
+     *                   degrees after applying the function
+     */
+    public Operator(String symbol, DoubleUnaryOperator function,
+                    boolean degreesIn, boolean degreesOut)
+    {
+        this.symbol = symbol;
+        unaryFunction = function;
+        binaryFunction = null;
+        this.degreesIn = degreesIn;
+        this.degreesOut = degreesOut;
+        builtin = BUILTINS.get(function);
+    }
+    
+    /**
+     * Constructs a binary {@code Operator} object.
+     *
+     * @param symbol   the symbol of the operator
+     * @param function the function of the operator
+     */
+    public Operator(String symbol, DoubleBinaryOperator function)
+    {
+        this.symbol = symbol;
+        unaryFunction = null;
+        binaryFunction = function;
+        degreesIn = degreesOut = false;
+        builtin = BUILTINS.get(function);
+    }
+    
+    /**
+     * Returns the symbol of this operator.
+     *
+     * @return the symbol of this operator
+     */
+    public String symbol()
+    {
+        return symbol;
+    }
+    
+    /**
+     * Returns {@code true} if this operator is unary; {@code false} if it is
+     * binary.
+     *
+     * @return {@code true} if this operator is unary; {@code false} if it is
+     *         binary
+     */
+    public boolean isUnary()
+    {
+        return unaryFunction != null;
+    }
+    
+    /**
+     * Applies this unary operator to the specified operand.
+     *
+     * @param  operand the operand
+     * @return         the result of applying this operator to the operand
+     */
+    public double apply(double operand)
+    {
+        if (degreesIn) {
+            operand = Math.toRadians(operand);
+        }
+        double result = unaryFunction.applyAsDouble(operand);
+        return degreesOut ? Math.toDegrees(result) : result;
+    }
+    
+    /**
+     * Applies this binary operator to the specified operands (left to right).
+     *
+     * @param  operand1 the first operand
+     * @param  operand2 the second operand
+     * @return          the result of applying this operator to the operands
+     */
+    public double apply(double operand1, double operand2)
+    {
+        return binaryFunction.applyAsDouble(operand1, operand2);
+    }
+    
+    /**
+     * Returns whether the operand is converted from degrees to radians before
+     * applying the function of this operator.
+     *
+     * @return whether the operand is converted from degrees to radians
+     */
+    boolean degreesIn()
+    {
+        return degreesIn;
+    }
+    
+    /**
+     * Returns whether the result is converted from radians to degrees after
+     * applying the function of this operator.
+     *
+     * @return whether the result is converted from radians to degrees
+     */
+    boolean degreesOut()
+    {
+        return degreesOut;
+    }
+    
+    /**
+     * Returns the symbol the function of this operator is mapped to in the
+     * default maps of {@code AbstractCalculator}, if it is one of the default
+     * functions, or the symbol of the specialized power function, such as
+     * {@code "^2"}, if it is one of those of {@code Powers}. Code generators
+     * use this to replace calls to well-known functions with equivalent
+     * inline code.
+     *
+     * @return the default symbol of the function of this operator, or {@code
+     *         null} if it is not a default function
+     */
+    String builtin()
+    {
+        return builtin;
+    }
+    
+    /** {@inheritDoc} */
+    @Override
+    public String toString()
+    {
+        return symbol;
+    }
+    
+    /**
+     * Returns a map from each default operator function of {@code
+     * AbstractCalculator} to its default symbol, and from each specialized
+     * power function of {@code Powers} to its symbol.
+     *
+     * @return a map from each default operator function to its symbol
+     */
+    private static Map<Object, String> builtins()
+    {
+        Map<Object, String> builtins = new IdentityHashMap<>();
+        AbstractCalculator.DEFAULT_UNARY_OPS.forEach(
+                (symbol, function) -> builtins.put(function, symbol));
+        AbstractCalculator.DEFAULT_BINARY_OPS.forEach(
+                (symbol, function) -> builtins.put(function, symbol));
+        Powers.addSymbols(builtins);
+        return builtins;
+    }
+}
\ No newline at end of file
@@ -1,3 +1,6 @@
+import java.io.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
 import java.util.*;
 import java.util.function.*;
 
@@ -17,9 +20,6 @@ import java.util.function.*;
  */
 public class PostfixCalculator extends AbstractCalculator
 {
-    /** The last answer returned by this calculator. */
-    private double lastAnswer;
-    
     /**
      * Constructs a {@code PostfixCalculator} object with the default operator
      * mappings from the {@code AbstractCalculator} class.
@@ -27,7 +27,6 @@ public class PostfixCalculator extends AbstractCalculator
     public PostfixCalculator()
     {
         super();
-        lastAnswer = Double.NaN;
     }
     
     /**
@@ -45,7 +44,6 @@ public class PostfixCalculator extends AbstractCalculator
     {
         setUnaryOps(unaryOps);
         setBinaryOps(binaryOps);
-        lastAnswer = Double.NaN;
     }
     
     /**
@@ -59,44 +57,149 @@ public class PostfixCalculator extends AbstractCalculator
     @Override
     public double evaluate(String expression)
     {
-        Deque<Double> operands = new ArrayDeque<>();
-        return lastAnswer = parseExpression(expression, operands) ?
-                operands.peek() : Double.NaN;
+        return super.evaluate(expression);
+    }
+    
+    /**
+     * Evaluates and returns the value of the postfix expression read from the
+     * specified reader, or {@code Double.NaN} if the expression is invalid or
+     * produces a not-a-number value, just as {@code evaluate(String)} would
+     * for the same text. The result is stored as the last answer of this
+     * calculator.
+     * <p>
+     * The expression is read and evaluated one token at a time, without ever
+     * being held in memory as a whole, so its length is not limited by the
+     * heap: memory use depends only on the deepest the operand stack gets
+     * and on the length of the longest token. Expressions read this way are
+     * neither compiled nor cached. The reader is read to its end, unless the
+     * expression turns out to be invalid first, and is not closed.
+     *
+     * @param  expression  the reader to read the expression from
+     * @return             the value of the expression, or {@code Double.NaN}
+     *                     if the expression is invalid or produces a
+     *                     not-a-number value
+     * @throws IOException if an I/O error occurs
+     */
+    public double evaluate(Reader expression) throws IOException
+    {
+        return evaluate(expression, context());
+    }
+    
+    /**
+     * Evaluates and returns the value of the postfix expression read from the
+     * specified reader in the specified context, just as {@code
+     * evaluate(Reader)} does. The expression reads the last answer of the
+     * context as {@code "ans"}, and its result is stored as the new last
+     * answer of the context. While metrics are set, only the latency of the
+     * evaluation and the cause of any error are recorded.
+     *
+     * @param  expression  the reader to read the expression from
+     * @param  context     the context to evaluate the expression in
+     * @return             the value of the expression, or {@code Double.NaN}
+     *                     if the expression is invalid or produces a
+     *                     not-a-number value
+     * @throws IOException if an I/O error occurs
+     */
+    public double evaluate(Reader expression, EvaluationContext context)
+            throws IOException
+    {
+        CalculatorMetrics metrics = getMetrics();
+        long start = System.nanoTime();
+        ExpressionLexer lexer = context.lexer();
+        ExpressionEvaluator evaluator = context.evaluator();
+        evaluator.reset(context.getAnswer());
+        double result = Double.NaN;
+        try {
+            lexer.reset(expression, false);
+            if (parse(context, getSettings(), evaluator)) {
+                result = evaluator.result();
+            } else if (metrics != null) {
+                metrics.recordError(context.takeError());
+            } else {
+                context.takeError();
+            }
+        } catch (UncheckedIOException e) {
+            context.takeError();
+            throw e.getCause();
+        } finally {
+            lexer.reset(""); // do not keep the reader
+        }
+        if (metrics != null) {
+            metrics.recordLatency(System.nanoTime() - start);
+        }
+        context.setAnswer(result);
+        return result;
+    }
+    
+    /**
+     * Evaluates and returns the value of the postfix expression read from the
+     * specified channel as UTF-8 text, just as {@code evaluate(Reader)} does.
+     * The channel is read to its end, unless the expression turns out to be
+     * invalid first, and is not closed.
+     *
+     * @param  expression  the channel to read the expression from
+     * @return             the value of the expression, or {@code Double.NaN}
+     *                     if the expression is invalid or produces a
+     *                     not-a-number value
+     * @throws IOException if an I/O error occurs
+     */
+    public double evaluate(ReadableByteChannel expression) throws IOException
+    {
+        return evaluate(Channels.newReader(expression, StandardCharsets.UTF_8));
+    }
+    
+    /**
+     * {@inheritDoc}
+     * <p>
+     * This implementation reads expressions in postfix notation, so operands
+     * and operators are reported in the order they are read.
+     */
+    @Override
+    protected boolean parse(CharSequence expression,
+                            CalculatorSettings settings,
+                            EvaluationContext context, ExpressionSink sink)
+    {
+        context.lexer().reset(expression);
+        return parse(context, settings, sink);
     }
     
     /**
-     * Processes the specified postfix expression using the specified {@code
-     * Deque} as auxiliary storage, returning a success value. If the parsing
-     * is successful, the {@code Deque} will hold exactly one element (the value
-     * of the whole expression).
+     * Parses the postfix expression read from the lexer of the specified
+     * context, which must already be reset to it, reporting its operands and
+     * operators to the specified sink.
      *
-     * @param  expression the input expression to evaluate
-     * @param  operands   the operand stack
-     * @return            {@code true} if the expression was successfully
-     *                    parsed; {@code false} otherwise
+     * @param  context  the context whose lexer to read tokens from
+     * @param  settings the settings to look up operators in
+     * @param  sink     the sink to report operands and operators to
+     * @return          {@code true} if a full postfix expression was parsed;
+     *                  {@code false} otherwise
      */
-    private boolean parseExpression(String expression, Deque<Double> operands)
+    private boolean parse(EvaluationContext context,
+                          CalculatorSettings settings, ExpressionSink sink)
     {
-        Scanner tokens = new Scanner(expression);
-        while (tokens.hasNext()) {
-            String operator; // declaration simplifies if-else branch structure
-            if (tokens.hasNextDouble()) {
-                operands.push(tokens.nextDouble());
-            } else if ((operator = tokens.next()).equals("ans")) {
-                operands.push(lastAnswer);
-            } else if (getUnaryOps().containsKey(operator) &&
-                    !operands.isEmpty()) { // unary needs one operand
-                operands.push(evalUnary(operator, operands.pop()));
-            } else if (getBinaryOps().containsKey(operator) &&
-                    operands.size() > 1) { // binary needs two operands
-                double operand2 = operands.pop();
-                double operand1 = operands.pop();
-                operands.push(evalBinary(operator, operand1, operand2));
-            } else { // bad operator or not enough operands
-                return false;
+        ExpressionLexer lexer = context.lexer();
+        for (int token; (token = lexer.next()) != ExpressionLexer.END; ) {
+            int operator; // declaration simplifies if-else branch structure
+            if (token == ExpressionLexer.NUMBER) {
+                sink.number(lexer.number());
+            } else if (token == ExpressionLexer.ANSWER) {
+                sink.answer();
+            } else if ((operator = settings.operator(lexer)) !=
+                    CalculatorSettings.NO_OPERATOR) {
+                if (!settings.apply(operator, sink)) {
+                    return context.fail(
+                            CalculatorMetrics.ErrorCause.STACK_UNDERFLOW);
+                }
+            } else if (!sink.variable(lexer)) {
+                return context.fail(CalculatorMetrics.ErrorCause.BAD_TOKEN);
             }
         }
-        return operands.size() == 1;
+        if (sink.size() != 1) {
+            return context.fail(sink.size() == 0 ?
+                    CalculatorMetrics.ErrorCause.STACK_UNDERFLOW :
+                    CalculatorMetrics.ErrorCause.EXTRA_OPERAND);
+        }
+        return true;
     }
     
     /**
@@ -0,0 +1,144 @@
+import java.util.*;
+import java.util.function.*;
+
+/**
+ * The {@code Powers} class holds the specialized forms of the default power
+ * operator {@code Math.pow} for constant exponents, which the {@code
+ * ExpressionCompiler} substitutes for it as a unary operator on the base.
+ * <p>
+ * Three forms give exactly the value {@code Math.pow} would, bit for bit:
+ * {@code x ^ 0} is always 1, even for {@code NaN}; {@code x ^ 2} is {@code x
+ * * x}, which is how {@code pow} itself computes squares; and {@code x ^
+ * 0.5} is {@code Math.sqrt(x)} for positive {@code x}, which {@code pow}
+ * also returns there, and {@code Math.pow} everywhere else, so that {@code
+ * -0.0} and {@code -Infinity} keep the results {@code pow} gives them.
+ * <p>
+ * The other whole exponents from {@code -MAX_EXPONENT} to {@code
+ * MAX_EXPONENT} are computed by repeated squaring, with the reciprocal taken
+ * last for negative exponents. Each multiplication rounds, so these results
+ * may differ from {@code pow} in the last few bits, and they are only used
+ * with {@code Optimization.RELAXED}. Negative bases, zeros, infinities and
+ * {@code NaN} give the same results as with {@code pow}, as the sign of a
+ * product follows the parity of the exponent, except that a reciprocal of a
+ * power that overflows is zero even where {@code pow} returns a subnormal.
+ *
+ * @author Kevin Zhu
+ */
+final class Powers
+{
+    /** The largest magnitude of a whole exponent computed by squaring. */
+    static final int MAX_EXPONENT = 16;
+    
+    /** The specialized form of {@code x ^ 0}. */
+    private static final DoubleUnaryOperator ZERO = x -> 1.0;
+    
+    /** The specialized form of {@code x ^ 0.5}. */
+    private static final DoubleUnaryOperator HALF = Powers::squareRoot;
+    
+    /**
+     * The specialized forms of the whole exponents, offset by {@code
+     * MAX_EXPONENT}.
+     */
+    private static final DoubleUnaryOperator[] WHOLE = whole();
+    
+    /** Sole constructor, preventing instantiation. */
+    private Powers()
+    {
+    }
+    
+    /**
+     * Returns the specialized form of raising to the specified exponent, or
+     * {@code null} if there is none.
+     *
+     * @param  exponent the constant exponent
+     * @param  relaxed  whether forms that may differ from {@code Math.pow} in
+     *                  the last few bits are allowed
+     * @return          the specialized form of raising to the exponent, or
+     *                  {@code null} if there is none
+     */
+    static DoubleUnaryOperator function(double exponent, boolean relaxed)
+    {
+        if (exponent == 0.5) {
+            return HALF;
+        } else if (exponent != Math.rint(exponent) ||
+                   Math.abs(exponent) > MAX_EXPONENT) {
+            return null;
+        }
+        int n = (int) exponent;
+        return n == 0 || n == 2 || relaxed ? WHOLE[n + MAX_EXPONENT] : null;
+    }
+    
+    /**
+     * Adds each specialized form to the specified map, mapped to its default
+     * symbol: {@code "^"} followed by the exponent, as in {@code "^2"} or
+     * {@code "^0.5"}.
+     *
+     * @param symbols the map to add the specialized forms to
+     */
+    static void addSymbols(Map<Object, String> symbols)
+    {
+        symbols.put(HALF, "^0.5");
+        for (int n = -MAX_EXPONENT; n <= MAX_EXPONENT; ++n) {
+            symbols.put(WHOLE[n + MAX_EXPONENT], "^" + n);
+        }
+    }
+    
+    /**
+     * Returns the specified base raised to the specified non-negative whole
+     * exponent, computed by repeated squaring.
+     *
+     * @param  x the base
+     * @param  n the non-negative whole exponent
+     * @return   {@code x} raised to the power of {@code n}
+     */
+    static double power(double x, int n)
+    {
+        double result = 1.0; // 1 * x is exactly x, so no rounding is added
+        for (; n > 0; n >>>= 1) {
+            if ((n & 1) != 0) {
+                result *= x;
+            }
+            if (n > 1) {
+                x *= x;
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * Returns the specified base raised to the power of 0.5, as {@code
+     * Math.pow} would.
+     *
+     * @param  x the base
+     * @return   {@code x} raised to the power of 0.5
+     */
+    static double squareRoot(double x)
+    {
+        return x > 0 ? Math.sqrt(x) : Math.pow(x, 0.5);
+    }
+    
+    /**
+     * Returns the specialized forms of the whole exponents from {@code
+     * -MAX_EXPONENT} to {@code MAX_EXPONENT}.
+     *
+     * @return the specialized forms of the whole exponents
+     */
+    private static DoubleUnaryOperator[] whole()
+    {
+        DoubleUnaryOperator[] whole =
+            new DoubleUnaryOperator[2 * MAX_EXPONENT + 1];
+        for (int n = -MAX_EXPONENT; n <= MAX_EXPONENT; ++n) {
+            int magnitude = Math.abs(n);
+            if (n == 0) {
+                whole[n + MAX_EXPONENT] = ZERO;
+            } else if (n == 2) {
+                whole[n + MAX_EXPONENT] = x -> x * x;
+            } else if (n > 0) {
+                whole[n + MAX_EXPONENT] = x -> power(x, magnitude);
+            } else {
+                whole[n + MAX_EXPONENT] = x -> 1 / power(x, magnitude);
+            }
+        }
+        return whole;
+    }
+}
\ No newline at end of file
@@ -17,9 +17,6 @@ import java.util.function.*;
  */
 public class PrefixCalculator extends AbstractCalculator
 {
-    /** The last answer returned by this calculator. */
-    private double lastAnswer;
-    
     /**
      * Constructs a {@code PrefixCalculator} object with the default operator
      * mappings from the {@code AbstractCalculator} class.
@@ -27,7 +24,6 @@ public class PrefixCalculator extends AbstractCalculator
     public PrefixCalculator()
     {
         super();
-        lastAnswer = Double.NaN;
     }
     
     /**
@@ -45,7 +41,6 @@ public class PrefixCalculator extends AbstractCalculator
     {
         setUnaryOps(unaryOps);
         setBinaryOps(binaryOps);
-        lastAnswer = Double.NaN;
     }
     
     /**
@@ -59,44 +54,69 @@ public class PrefixCalculator extends AbstractCalculator
     @Override
     public double evaluate(String expression)
     {
-        Scanner tokens = new Scanner(expression);
-        lastAnswer = evaluate(tokens);
-        if (tokens.hasNext()) { // input not completely parsed
-            lastAnswer = Double.NaN;
-        }
-        return lastAnswer;
+        return super.evaluate(expression);
     }
     
     /**
-     * Evaluates and returns the value of the next full prefix expression in the
-     * specified {@code Scanner}, or {@code Double.NaN} in the case of invalid
-     * input.
-     *
-     * @param  tokens the {@code Scanner} containing the tokens of the
-     *                expression
-     * @return        the value of the next full prefix expression in the
-     *                specified {@code Scanner}, or {@code Double.NaN} in the
-     *                case of invalid input
+     * {@inheritDoc}
+     * <p>
+     * This implementation reads expressions in prefix notation, reporting each
+     * operator once all of its operands have been reported. Operators still
+     * waiting for operands are kept on a stack in the context rather than on
+     * the call stack, so the depth to which expressions may nest
+     * is limited only by memory.
      */
-    private double evaluate(Scanner tokens)
+    @Override
+    protected boolean parse(CharSequence expression,
+                            CalculatorSettings settings,
+                            EvaluationContext context, ExpressionSink sink)
     {
-        if (tokens.hasNextDouble()) {
-            return tokens.nextDouble();
-        } else if (tokens.hasNext()) {
-            // next token not a number, so assumed to be
-            // an operator or "ans" (for last answer)
-            String operator = tokens.next();
-            if (operator.equals("ans")) {
-                return lastAnswer;
-            } else if (getUnaryOps().containsKey(operator)) {
-                return evalUnary(operator, evaluate(tokens));
-            } else if (getBinaryOps().containsKey(operator)) {
-                double operand1 = evaluate(tokens);
-                double operand2 = evaluate(tokens);
-                return evalBinary(operator, operand1, operand2);
-            } // else, invalid operator
-        } // else, premature end to input encountered
-        return Double.NaN;
+        ExpressionLexer lexer = context.lexer();
+        int[] pending = context.pending(1);
+        int depth = 0; // the number of operators awaiting operands
+        lexer.reset(expression);
+        while (true) {
+            int token = lexer.next();
+            if (token == ExpressionLexer.NUMBER) {
+                sink.number(lexer.number());
+            } else if (token == ExpressionLexer.ANSWER) {
+                sink.answer();
+            } else if (token == ExpressionLexer.END) { // premature end
+                return context.fail(
+                        CalculatorMetrics.ErrorCause.STACK_UNDERFLOW);
+            } else {
+                // next token not a number, so assumed to be an operator
+                int operator = settings.operator(lexer);
+                if (operator == CalculatorSettings.NO_OPERATOR) {
+                    if (!sink.variable(lexer)) { // variable or invalid token
+                        return context.fail(
+                                CalculatorMetrics.ErrorCause.BAD_TOKEN);
+                    }
+                } else {
+                    if (depth == pending.length) {
+                        pending = context.pending(depth + 1);
+                    }
+                    // the low bit is set while a second operand is awaited
+                    pending[depth++] = operator << 1 |
+                                       (settings.isUnary(operator) ? 0 : 1);
+                    continue;
+                }
+            }
+            // an operand is complete, so apply every operator it completes
+            while (depth > 0 && (pending[depth - 1] & 1) == 0) {
+                if (!settings.apply(pending[--depth] >>> 1, sink)) {
+                    return false;
+                }
+            }
+            if (depth == 0) {
+                break;
+            }
+            pending[depth - 1] &= ~1; // the first of two operands
+        }
+        if (lexer.next() != ExpressionLexer.END) {
+            return context.fail(CalculatorMetrics.ErrorCause.EXTRA_OPERAND);
+        }
+        return true;
     }
     
     /**
@@ -0,0 +1,157 @@
+import java.util.*;
+
+/**
+ * The {@code SymbolTable} class provides an immutable mapping from operator
+ * symbols to values that can be queried directly with a range of characters in
+ * a {@code CharSequence}. This lets tokens be looked up while they are still
+ * part of the input expression, without creating a substring for each token.
+ * <p>
+ * Symbols are stored in a trie, so a lookup costs at most one node step per
+ * character of the token. The same walk finds the longest symbol at the start
+ * of a range of characters, which lets tokens that are not separated by
+ * whitespace be split at operators.
+ *
+ * @param <V> the type of values associated with the symbols
+ *
+ * @author Kevin Zhu
+ */
+public final class SymbolTable<V>
+{
+    /** The root node of the trie, matching the empty string. */
+    private final Node<V> root;
+    
+    /**
+     * Constructs a {@code SymbolTable} object containing the mappings of the
+     * specified map.
+     *
+     * @param symbols the map from symbols to their associated values
+     */
+    public SymbolTable(Map<String, ? extends V> symbols)
+    {
+        root = new Node<>();
+        for (Map.Entry<String, ? extends V> entry : symbols.entrySet()) {
+            Node<V> node = root;
+            String symbol = entry.getKey();
+            for (int i = 0; i < symbol.length(); ++i) {
+                node = node.childOrNew(symbol.charAt(i));
+            }
+            node.value = entry.getValue();
+        }
+    }
+    
+    /**
+     * Returns the value associated with the symbol spelled by the characters of
+     * the specified sequence between {@code start} (inclusive) and {@code end}
+     * (exclusive), or {@code null} if there is no such symbol.
+     *
+     * @param  chars the sequence containing the symbol
+     * @param  start the index of the first character of the symbol
+     * @param  end   the index after the last character of the symbol
+     * @return       the value associated with the specified symbol, or {@code
+     *               null} if there is no such symbol
+     */
+    public V get(CharSequence chars, int start, int end)
+    {
+        Node<V> node = root;
+        for (int i = start; i < end && node != null; ++i) {
+            node = node.child(chars.charAt(i));
+        }
+        return node == null ? null : node.value;
+    }
+    
+    /**
+     * Returns the index after the longest symbol that the characters of the
+     * specified sequence from {@code start} begin with, looking no further
+     * than {@code end}, or {@code start} if they begin with no symbol.
+     *
+     * @param  chars the sequence to match symbols in
+     * @param  start the index of the first character to match
+     * @param  end   the index after the last character that may be matched
+     * @return       the index after the longest symbol at {@code start}, or
+     *               {@code start} if there is no such symbol
+     */
+    public int match(CharSequence chars, int start, int end)
+    {
+        int match = start;
+        Node<V> node = root;
+        for (int i = start; i < end; ) {
+            node = node.child(chars.charAt(i++));
+            if (node == null) {
+                break;
+            } else if (node.value != null) {
+                match = i;
+            }
+        }
+        return match;
+    }
+    
+    /**
+     * A node of the trie, holding the value of the symbol ending at this node
+     * (if any) and the child nodes of each character that can follow it.
+     *
+     * @param <V> the type of values associated with the symbols
+     */
+    private static final class Node<V>
+    {
+        /** The characters leading to each child node. */
+        private char[] labels = new char[0];
+        
+        /** The child nodes, parallel to {@code labels}. */
+        private Node<V>[] children = newArray(0);
+        
+        /** The value of the symbol ending at this node, or {@code null}. */
+        private V value;
+        
+        /**
+         * Returns the child node reached with the specified character, or
+         * {@code null} if there is no such child.
+         *
+         * @param  c the character to follow
+         * @return   the child node reached with the specified character, or
+         *           {@code null} if there is no such child
+         */
+        private Node<V> child(char c)
+        {
+            char[] labels = this.labels; // local copy for the hot loop
+            for (int i = 0; i < labels.length; ++i) {
+                if (labels[i] == c) {
+                    return children[i];
+                }
+            }
+            return null;
+        }
+        
+        /**
+         * Returns the child node reached with the specified character, adding
+         * a new one if there is no such child yet.
+         *
+         * @param  c the character to follow
+         * @return   the child node reached with the specified character
+         */
+        private Node<V> childOrNew(char c)
+        {
+            Node<V> child = child(c);
+            if (child == null) {
+                int n = labels.length;
+                labels = Arrays.copyOf(labels, n + 1);
+                children = Arrays.copyOf(children, n + 1);
+                labels[n] = c;
+                children[n] = child = new Node<>();
+            }
+            return child;
+        }
+        
+        /**
+         * Returns a new array of nodes with the specified length.
+         *
+         * @param  <V>    the type of values associated with the symbols
+         * @param  length the length of the array
+         * @return        a new array of nodes with the specified length
+         */
+        @SuppressWarnings("unchecked")
+        private static <V> Node<V>[] newArray(int length)
+        {
+            return (Node<V>[]) new Node<?>[length];
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,35 @@
+package calculator.benchmarks;
+
+import java.util.*;
+
+/**
+ * The {@code BenchmarkMain} class runs the benchmarks with the JMH command
+ * line, adding the GC profiler unless another profiler is chosen, so that
+ * every run reports the allocation rate alongside throughput and latency.
+ *
+ * @author Kevin Zhu
+ */
+public final class BenchmarkMain
+{
+    /** Prevents instantiation of this class. */
+    private BenchmarkMain()
+    {
+    }
+    
+    /**
+     * Runs the benchmarks selected by the specified JMH command line
+     * arguments.
+     *
+     * @param  args      the JMH command line arguments
+     * @throws Exception if the benchmarks cannot be run
+     */
+    public static void main(String[] args) throws Exception
+    {
+        List<String> options = new ArrayList<>(Arrays.asList(args));
+        if (!options.contains("-prof")) {
+            options.add(0, "-prof");
+            options.add(1, "gc");
+        }
+        org.openjdk.jmh.Main.main(options.toArray(new String[0]));
+    }
+}
\ No newline at end of file
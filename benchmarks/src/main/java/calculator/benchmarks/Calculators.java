@@ -0,0 +1,177 @@
+package calculator.benchmarks;
+
+import java.lang.invoke.*;
+import java.util.*;
+import java.util.function.*;
+
+/**
+ * The {@code Calculators} class gives the benchmarks access to the
+ * calculators. The calculators live in the default package, which classes in
+ * a named package cannot refer to by name, and JMH requires benchmarks to be
+ * in a named package, so the calculators are looked up reflectively once and
+ * then called through a {@code ToDoubleFunction} spun by {@code
+ * LambdaMetafactory}. The resulting call is an ordinary interface call that
+ * the JIT compiler inlines, so it adds nothing to the measurements.
+ *
+ * @author Kevin Zhu
+ */
+final class Calculators
+{
+    /** The notations of the calculators, matching their class names. */
+    static final List<String> NOTATIONS = List.of("prefix", "infix", "postfix");
+    
+    /** Prevents instantiation of this class. */
+    private Calculators()
+    {
+    }
+    
+    /**
+     * Returns a function evaluating expressions with a new calculator for the
+     * specified notation whose cache holds at most the specified number of
+     * compiled expressions, with the default optimizations.
+     *
+     * @param  notation                 the notation of the calculator
+     * @param  cacheCapacity            the capacity of the calculator's
+     *                                  cache, or zero to parse every
+     *                                  expression
+     * @return                          a function evaluating expressions with
+     *                                  a new calculator
+     * @throws IllegalArgumentException if there is no calculator for the
+     *                                  specified notation
+     */
+    static ToDoubleFunction<String> newCalculator(String notation,
+                                                  int cacheCapacity)
+    {
+        return newCalculator(notation, cacheCapacity, null);
+    }
+    
+    /**
+     * Returns a function evaluating expressions with a new calculator for the
+     * specified notation whose cache holds at most the specified number of
+     * compiled expressions, compiling them with the specified optimizations.
+     *
+     * @param  notation                 the notation of the calculator
+     * @param  cacheCapacity            the capacity of the calculator's
+     *                                  cache, or zero to parse every
+     *                                  expression
+     * @param  optimization             the name of the {@code
+     *                                  AbstractCalculator.Optimization} to
+     *                                  compile with, or {@code null} for the
+     *                                  default
+     * @return                          a function evaluating expressions with
+     *                                  a new calculator
+     * @throws IllegalArgumentException if there is no calculator for the
+     *                                  specified notation
+     */
+    @SuppressWarnings("unchecked")
+    static ToDoubleFunction<String> newCalculator(String notation,
+                                                  int cacheCapacity,
+                                                  String optimization)
+    {
+        if (!NOTATIONS.contains(notation)) {
+            throw new IllegalArgumentException("unknown notation: " +
+                                               notation);
+        }
+        String name = Character.toUpperCase(notation.charAt(0)) +
+                      notation.substring(1) + "Calculator";
+        try {
+            Class<?> type = Class.forName(name);
+            Object calculator = type.getConstructor().newInstance();
+            Object cache = type.getMethod("getCache").invoke(calculator);
+            cache.getClass().getMethod("setCapacity", int.class)
+                 .invoke(cache, cacheCapacity);
+            if (optimization != null) {
+                Class<?> optimizations =
+                    Class.forName("AbstractCalculator$Optimization");
+                type.getMethod("setOptimization", optimizations)
+                    .invoke(calculator, optimizations.getField(optimization)
+                                                     .get(null));
+            }
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            MethodType evaluateType =
+                MethodType.methodType(double.class, String.class);
+            CallSite site = LambdaMetafactory.metafactory(lookup,
+                    "applyAsDouble",
+                    MethodType.methodType(ToDoubleFunction.class, type),
+                    MethodType.methodType(double.class, Object.class),
+                    lookup.findVirtual(type, "evaluate", evaluateType),
+                    evaluateType);
+            return (ToDoubleFunction<String>)
+                   site.getTarget().invoke(calculator);
+        } catch (Throwable e) {
+            throw new IllegalStateException("cannot create " + name, e);
+        }
+    }
+    
+    /**
+     * Returns the functions of the default unary operators, by symbol.
+     *
+     * @return the functions of the default unary operators
+     */
+    static Map<String, DoubleUnaryOperator> unaryFunctions()
+    {
+        return defaults("DEFAULT_UNARY_OPS");
+    }
+    
+    /**
+     * Returns the functions of the default binary operators, by symbol.
+     *
+     * @return the functions of the default binary operators
+     */
+    static Map<String, DoubleBinaryOperator> binaryFunctions()
+    {
+        return defaults("DEFAULT_BINARY_OPS");
+    }
+    
+    /**
+     * Returns the symbols of the default unary operators in sorted order.
+     *
+     * @return the symbols of the default unary operators
+     */
+    static List<String> unaryOperators()
+    {
+        return sorted(unaryFunctions());
+    }
+    
+    /**
+     * Returns the symbols of the default binary operators in sorted order.
+     *
+     * @return the symbols of the default binary operators
+     */
+    static List<String> binaryOperators()
+    {
+        return sorted(binaryFunctions());
+    }
+    
+    /**
+     * Returns the keys of the specified operator map in sorted order, so that
+     * generated expressions are the same from one run to the next.
+     *
+     * @param  operators the operator map
+     * @return           the symbols of the operators in the map
+     */
+    private static List<String> sorted(Map<String, ?> operators)
+    {
+        List<String> symbols = new ArrayList<>(operators.keySet());
+        Collections.sort(symbols);
+        return List.copyOf(symbols);
+    }
+    
+    /**
+     * Returns the specified operator map of {@code AbstractCalculator}.
+     *
+     * @param  <T>   the type of the operator functions
+     * @param  field the name of the operator map
+     * @return       the operator map
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> Map<String, T> defaults(String field)
+    {
+        try {
+            return (Map<String, T>) Class.forName("AbstractCalculator")
+                                         .getField(field).get(null);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("cannot read " + field, e);
+        }
+    }
+}
\ No newline at end of file
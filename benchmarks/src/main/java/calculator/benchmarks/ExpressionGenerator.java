@@ -0,0 +1,251 @@
+package calculator.benchmarks;
+
+import java.util.*;
+import java.util.function.*;
+
+/**
+ * The {@code ExpressionGenerator} class generates valid expressions of a given
+ * number of tokens in any of the three notations. The expressions are built
+ * as balanced trees, so the nesting depth grows with the logarithm of the
+ * size and even the largest expressions do not exhaust the stack of this
+ * recursive generator. The operators are used in turn from a fixed list
+ * of every default binary operator followed by every default unary operator,
+ * so every operator appears in expressions of a few dozen tokens or more.
+ * <p>
+ * The value of each subexpression is computed as the tree is built, and an
+ * operator that would make it infinite or not a number, such as {@code asec}
+ * of {@code 3.25}, is passed over for the next one with the same number of
+ * operands. Every subexpression therefore has a finite value, as with real
+ * inputs, rather than evaluating mostly the not-a-number shortcuts of the
+ * operator functions.
+ * <p>
+ * Sizes count numbers and operators. Infix expressions also have the
+ * parentheses needed to keep the structure of the tree, which are not
+ * counted.
+ *
+ * @author Kevin Zhu
+ */
+final class ExpressionGenerator
+{
+    /** The numbers used in turn as operands. */
+    private static final String[] NUMBERS = { "2", "0.5", "3.25", "7", "1.5" };
+    
+    /** The functions of the unary operators, by symbol. */
+    private final Map<String, DoubleUnaryOperator> unaryFunctions;
+    
+    /** The functions of the binary operators, by symbol. */
+    private final Map<String, DoubleBinaryOperator> binaryFunctions;
+    
+    /** The symbols of the operators, used in turn. */
+    private final List<String> operators;
+    
+    /** The index of the next operator to use. */
+    private int nextOperator;
+    
+    /** The index of the next number to use. */
+    private int nextNumber;
+    
+    /**
+     * Constructs an {@code ExpressionGenerator} object using every default
+     * operator.
+     */
+    ExpressionGenerator()
+    {
+        unaryFunctions = Calculators.unaryFunctions();
+        binaryFunctions = Calculators.binaryFunctions();
+        operators = new ArrayList<>(Calculators.binaryOperators());
+        operators.addAll(Calculators.unaryOperators());
+    }
+    
+    /**
+     * Returns a new expression of the specified number of tokens in the
+     * specified notation.
+     *
+     * @param  notation                 the notation of the expression
+     * @param  tokens                   the number of numbers and operators in
+     *                                  the expression
+     * @return                          a new expression
+     * @throws IllegalArgumentException if {@code tokens} is not positive or
+     *                                  the notation is unknown
+     */
+    String generate(String notation, int tokens)
+    {
+        if (tokens < 1) {
+            throw new IllegalArgumentException("tokens must be positive: " +
+                                               tokens);
+        }
+        nextOperator = 0;
+        nextNumber = 0;
+        Node root = build(tokens);
+        StringBuilder expression = new StringBuilder();
+        switch (notation) {
+            case "prefix":
+                appendPrefix(root, expression);
+                break;
+            case "infix":
+                appendInfix(root, expression);
+                break;
+            case "postfix":
+                appendPostfix(root, expression);
+                break;
+            default:
+                throw new IllegalArgumentException("unknown notation: " +
+                                                   notation);
+        }
+        return expression.toString().trim();
+    }
+    
+    /**
+     * Returns a new tree of the specified number of tokens with a finite
+     * value, taking the next operator in turn at each node.
+     *
+     * @param  tokens                the number of numbers and operators in
+     *                               the tree
+     * @return                       a new tree
+     * @throws IllegalStateException if no operator gives a finite value
+     */
+    private Node build(int tokens)
+    {
+        if (tokens == 1) {
+            String number = NUMBERS[nextNumber++ % NUMBERS.length];
+            return new Node(number, Double.parseDouble(number), null, null);
+        }
+        String operator = nextOperator();
+        while (tokens == 2 && binaryFunctions.containsKey(operator)) {
+            operator = nextOperator();
+        }
+        boolean binary = binaryFunctions.containsKey(operator);
+        int left = binary ? (tokens - 1) / 2 : tokens - 1;
+        Node first = build(left);
+        Node second = binary ? build(tokens - 1 - left) : null;
+        for (int i = 0; i < operators.size(); ++i) {
+            if (binaryFunctions.containsKey(operator) == binary) {
+                double value = binary ?
+                    binaryFunctions.get(operator).applyAsDouble(first.value,
+                                                                second.value) :
+                    unaryFunctions.get(operator).applyAsDouble(first.value);
+                if (Double.isFinite(value)) {
+                    return new Node(operator, value, first, second);
+                }
+            }
+            operator = nextOperator();
+        }
+        throw new IllegalStateException("no operator gives a finite value");
+    }
+    
+    /**
+     * Returns the next operator in turn.
+     *
+     * @return the symbol of the next operator
+     */
+    private String nextOperator()
+    {
+        return operators.get(nextOperator++ % operators.size());
+    }
+    
+    /**
+     * Appends the specified tree in prefix notation.
+     *
+     * @param node       the tree to append
+     * @param expression the expression to append to
+     */
+    private static void appendPrefix(Node node, StringBuilder expression)
+    {
+        expression.append(node.symbol).append(' ');
+        if (node.left != null) {
+            appendPrefix(node.left, expression);
+        }
+        if (node.right != null) {
+            appendPrefix(node.right, expression);
+        }
+    }
+    
+    /**
+     * Appends the specified tree in postfix notation.
+     *
+     * @param node       the tree to append
+     * @param expression the expression to append to
+     */
+    private static void appendPostfix(Node node, StringBuilder expression)
+    {
+        if (node.left != null) {
+            appendPostfix(node.left, expression);
+        }
+        if (node.right != null) {
+            appendPostfix(node.right, expression);
+        }
+        expression.append(node.symbol).append(' ');
+    }
+    
+    /**
+     * Appends the specified tree in infix notation, with unary operators
+     * before their operands and every binary operation within another
+     * operation in parentheses.
+     *
+     * @param node       the tree to append
+     * @param expression the expression to append to
+     */
+    private static void appendInfix(Node node, StringBuilder expression)
+    {
+        if (node.left == null) {
+            expression.append(node.symbol).append(' ');
+        } else if (node.right == null) {
+            expression.append(node.symbol).append(' ');
+            appendOperand(node.left, expression);
+        } else {
+            appendOperand(node.left, expression);
+            expression.append(node.symbol).append(' ');
+            appendOperand(node.right, expression);
+        }
+    }
+    
+    /**
+     * Appends the specified operand in infix notation, in parentheses if it
+     * is a binary operation.
+     *
+     * @param node       the operand to append
+     * @param expression the expression to append to
+     */
+    private static void appendOperand(Node node, StringBuilder expression)
+    {
+        if (node.right == null) {
+            appendInfix(node, expression);
+        } else {
+            expression.append("( ");
+            appendInfix(node, expression);
+            expression.append(") ");
+        }
+    }
+    
+    /** A number, or an operator with its operands. */
+    private static final class Node
+    {
+        /** The number or operator symbol. */
+        private final String symbol;
+        
+        /** The value of this number or operation. */
+        private final double value;
+        
+        /** The first operand, or {@code null} for a number. */
+        private final Node left;
+        
+        /** The second operand, or {@code null} for a unary operator. */
+        private final Node right;
+        
+        /**
+         * Constructs a {@code Node} object.
+         *
+         * @param symbol the number or operator symbol
+         * @param value  the value of the number or operation
+         * @param left   the first operand, or {@code null}
+         * @param right  the second operand, or {@code null}
+         */
+        private Node(String symbol, double value, Node left, Node right)
+        {
+            this.symbol = symbol;
+            this.value = value;
+            this.left = left;
+            this.right = right;
+        }
+    }
+}
\ No newline at end of file
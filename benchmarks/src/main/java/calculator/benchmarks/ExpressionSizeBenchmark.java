@@ -0,0 +1,79 @@
+package calculator.benchmarks;
+
+import java.util.concurrent.*;
+import java.util.function.*;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * The {@code ExpressionSizeBenchmark} class measures how the time to evaluate
+ * an expression grows with its size, from a single operation to a hundred
+ * thousand tokens, for each notation. The expressions use every default
+ * operator in turn, as generated by {@code ExpressionGenerator}.
+ * <p>
+ * Each expression is evaluated both with the cache of the calculator enabled,
+ * which measures evaluating its compiled form, and with the cache disabled,
+ * which measures parsing it every time. The expressions have only constant
+ * operands, which the default optimizations would fold into a single
+ * constant, so the calculators compile them with {@code Optimization.NONE}
+ * and the compiled form still applies every operator.
+ *
+ * @author Kevin Zhu
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExpressionSizeBenchmark
+{
+    /** The notation of the calculator. */
+    @Param({ "prefix", "infix", "postfix" })
+    public String notation;
+    
+    /** The number of numbers and operators in the expression. */
+    @Param({ "3", "100", "10000", "100000" })
+    public int tokens;
+    
+    /** The capacity of the cache of the calculator. */
+    @Param({ "0", "256" })
+    public int cacheCapacity;
+    
+    /** The calculator evaluating the expression. */
+    private ToDoubleFunction<String> calculator;
+    
+    /** The expression to evaluate. */
+    private String expression;
+    
+    /**
+     * Creates the calculator and generates the expression, checking that the
+     * expression has a finite value.
+     *
+     * @throws IllegalStateException if the expression does not have a finite
+     *                               value
+     */
+    @Setup
+    public void setUp()
+    {
+        calculator = Calculators.newCalculator(notation, cacheCapacity,
+                                                 "NONE");
+        expression = new ExpressionGenerator().generate(notation, tokens);
+        double value = calculator.applyAsDouble(expression);
+        if (!Double.isFinite(value)) {
+            throw new IllegalStateException(notation + " expression of " +
+                                            tokens + " tokens evaluates to " +
+                                            value);
+        }
+    }
+    
+    /**
+     * Evaluates the expression.
+     *
+     * @return the value of the expression
+     */
+    @Benchmark
+    public double evaluate()
+    {
+        return calculator.applyAsDouble(expression);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,315 @@
+package calculator.benchmarks;
+
+import java.lang.invoke.*;
+import java.math.*;
+import java.util.*;
+
+/**
+ * The {@code LiteralCheck} class checks that the lexer of the calculators
+ * reads numeric literals as exactly the {@code double} values that {@code
+ * Double.parseDouble} gives, bit for bit. The lexer converts most literals
+ * itself, with the Eisel-Lemire algorithm for those that one multiplication
+ * or division cannot convert exactly, and the literals checked are chosen to
+ * exercise it: random literals, literals exactly halfway between two {@code
+ * double} values and just either side of them, mantissas of 19 or more
+ * digits, whose low digits the lexer drops, and literals around the
+ * subnormal and overflow boundaries. Every literal is checked with both
+ * signs.
+ * <p>
+ * The first arguments, if given, are the number of random literals of each
+ * kind and the seed of the random numbers. The exit status is 1 if any
+ * literal is read differently.
+ *
+ * @author Kevin Zhu
+ */
+public final class LiteralCheck
+{
+    /** The number of random literals of each kind checked by default. */
+    private static final int DEFAULT_COUNT = 200_000;
+    
+    /** The number of mismatches reported before the rest are only counted. */
+    private static final int MAX_REPORTED = 20;
+    
+    /** The value two, for halving exact decimal values. */
+    private static final BigDecimal TWO = BigDecimal.valueOf(2);
+    
+    /** The lexer reading the literals. */
+    private final Object lexer;
+    
+    /** The {@code reset(CharSequence)} method of the lexer. */
+    private final MethodHandle reset;
+    
+    /** The {@code next()} method of the lexer. */
+    private final MethodHandle next;
+    
+    /** The {@code number()} method of the lexer. */
+    private final MethodHandle number;
+    
+    /** The kind of token the lexer reports for numeric literals. */
+    private final int numberKind;
+    
+    /** The source of the random literals. */
+    private final Random random;
+    
+    /** The number of literals checked so far. */
+    private long checked;
+    
+    /** The number of literals read differently so far. */
+    private long mismatches;
+    
+    /**
+     * Constructs a {@code LiteralCheck} object with a new lexer, drawing
+     * random literals from the specified seed.
+     *
+     * @param  seed                  the seed of the random literals
+     * @throws IllegalStateException if the lexer cannot be created
+     */
+    private LiteralCheck(long seed)
+    {
+        try {
+            Class<?> type = Class.forName("ExpressionLexer");
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            lexer = type.getConstructor().newInstance();
+            reset = lookup.findVirtual(type, "reset", MethodType.methodType(
+                    void.class, CharSequence.class));
+            next = lookup.findVirtual(type, "next",
+                    MethodType.methodType(int.class));
+            number = lookup.findVirtual(type, "number",
+                    MethodType.methodType(double.class));
+            numberKind = type.getField("NUMBER").getInt(null);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("cannot create the lexer", e);
+        }
+        random = new Random(seed);
+    }
+    
+    /**
+     * Checks the literals, with the number of random literals of each kind
+     * and the seed given by the specified arguments, if any.
+     *
+     * @param args the number of random literals of each kind and the seed
+     */
+    public static void main(String[] args)
+    {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) :
+                    DEFAULT_COUNT;
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : 1L;
+        LiteralCheck check = new LiteralCheck(seed);
+        check.checkBoundaries();
+        check.checkRandom(count);
+        check.checkMidpoints(count);
+        check.checkLongMantissas(count);
+        System.out.println("checked " + check.checked + " literals, " +
+                           check.mismatches + " read differently");
+        if (check.mismatches > 0) {
+            System.exit(1);
+        }
+    }
+    
+    /**
+     * Checks literals around the smallest subnormal, the smallest normal and
+     * the largest finite {@code double}, and powers of ten across and beyond
+     * the range of {@code double} values.
+     */
+    private void checkBoundaries()
+    {
+        double[] boundaries = {
+            Double.MIN_VALUE, Double.MIN_NORMAL, Double.MAX_VALUE
+        };
+        for (double boundary : boundaries) {
+            for (double value : new double[] {
+                    Math.nextDown(boundary), boundary, Math.nextUp(boundary)
+            }) {
+                if (value > 0.0 && value <= Double.MAX_VALUE) {
+                    check(Double.toString(value));
+                    checkAround(new BigDecimal(value));
+                    checkAround(midpointAbove(value));
+                }
+            }
+        }
+        checkAround(new BigDecimal(Double.MIN_VALUE).divide(TWO));
+        for (int exponent = -400; exponent <= 400; ++exponent) {
+            check("1e" + exponent);
+            check("9.999999999999999e" + exponent);
+            check("9999999999999999999e" + exponent);
+            check("18446744073709551615e" + exponent);
+            check("1234567890123456789012345e" + exponent);
+        }
+    }
+    
+    /**
+     * Checks the specified number of random literals of two kinds: the
+     * shortest literals of random {@code double} values, and random digits
+     * with a random decimal point and exponent.
+     *
+     * @param count the number of random literals of each kind
+     */
+    private void checkRandom(int count)
+    {
+        for (int i = 0; i < count; ++i) {
+            check(Double.toString(randomDouble()));
+            StringBuilder literal = randomDigits(1 + random.nextInt(30));
+            if (random.nextBoolean()) {
+                literal.insert(random.nextInt(literal.length() + 1), '.');
+            }
+            if (literal.length() == 1 && literal.charAt(0) == '.') {
+                literal.append('5');
+            }
+            check(literal.append('e').append(random.nextInt(701) - 350)
+                         .toString());
+        }
+    }
+    
+    /**
+     * Checks the exact midpoints between the specified number of random
+     * pairs of adjacent {@code double} values, along with literals just
+     * either side of them and the midpoints rounded to 19 to 21 significant
+     * digits.
+     *
+     * @param count the number of random midpoints
+     */
+    private void checkMidpoints(int count)
+    {
+        for (int i = 0; i < count; ++i) {
+            BigDecimal midpoint = midpointAbove(randomDouble());
+            checkAround(midpoint);
+            MathContext digits = new MathContext(19 + random.nextInt(3),
+                    random.nextBoolean() ? RoundingMode.DOWN :
+                                           RoundingMode.UP);
+            check(midpoint.round(digits).toString());
+        }
+    }
+    
+    /**
+     * Checks the specified number of random mantissas of 19 to 40 digits,
+     * which do not fit in a {@code long} or only just do, with random
+     * exponents, and as many whose digits after the 19th are all zero.
+     *
+     * @param count the number of random mantissas of each kind
+     */
+    private void checkLongMantissas(int count)
+    {
+        for (int i = 0; i < count; ++i) {
+            int exponent = random.nextInt(661) - 340;
+            check(randomDigits(19 + random.nextInt(22)).append('e')
+                                                       .append(exponent)
+                                                       .toString());
+            StringBuilder zeros = randomDigits(19);
+            for (int j = random.nextInt(20); j >= 0; --j) {
+                zeros.append('0');
+            }
+            check(zeros.append('e').append(exponent).toString());
+        }
+    }
+    
+    /**
+     * Checks the specified exact decimal value, and values just above and
+     * below it.
+     *
+     * @param value the value to check around
+     */
+    private void checkAround(BigDecimal value)
+    {
+        BigDecimal nudge = value.ulp().movePointLeft(3);
+        check(value.toString());
+        check(value.add(nudge).toString());
+        check(value.subtract(nudge).toString());
+    }
+    
+    /**
+     * Checks that the lexer reads the specified literal, with and without a
+     * negative sign, as the value {@code Double.parseDouble} gives, reporting
+     * it if it does not.
+     *
+     * @param literal the literal to check
+     */
+    private void check(String literal)
+    {
+        check1(literal);
+        check1("-" + literal);
+    }
+    
+    /**
+     * Checks that the lexer reads the specified literal as the value {@code
+     * Double.parseDouble} gives, reporting it if it does not.
+     *
+     * @param literal the literal to check
+     */
+    private void check1(String literal)
+    {
+        double expected = Double.parseDouble(literal);
+        double actual = read(literal);
+        ++checked;
+        if (Double.doubleToRawLongBits(actual) !=
+                Double.doubleToRawLongBits(expected)) {
+            if (++mismatches <= MAX_REPORTED) {
+                System.out.println(literal + ": read " + actual +
+                                   ", expected " + expected);
+            }
+        }
+    }
+    
+    /**
+     * Returns the value the lexer reads the specified literal as, or {@code
+     * Double.NaN} if it does not read it as a single numeric literal.
+     *
+     * @param  literal the literal to read
+     * @return         the value the lexer reads the literal as
+     */
+    private double read(String literal)
+    {
+        try {
+            reset.invoke(lexer, literal);
+            return (int) next.invoke(lexer) == numberKind ?
+                   (double) number.invoke(lexer) : Double.NaN;
+        } catch (Throwable e) {
+            throw new IllegalStateException("cannot read " + literal, e);
+        }
+    }
+    
+    /**
+     * Returns the exact value halfway between the specified positive {@code
+     * double} value and the next larger one, which is {@code 2^1024} past the
+     * largest finite value.
+     *
+     * @param  value the positive value
+     * @return       the exact value halfway to the next larger value
+     */
+    private static BigDecimal midpointAbove(double value)
+    {
+        return new BigDecimal(value).add(
+                new BigDecimal(Math.ulp(value)).divide(TWO));
+    }
+    
+    /**
+     * Returns a random positive finite {@code double} value, with every bit
+     * pattern equally likely.
+     *
+     * @return a random positive finite {@code double} value
+     */
+    private double randomDouble()
+    {
+        double value;
+        do {
+            value = Math.abs(Double.longBitsToDouble(random.nextLong()));
+        } while (value == 0.0 || !Double.isFinite(value));
+        return value;
+    }
+    
+    /**
+     * Returns the specified number of random decimal digits, the first of
+     * which is not zero.
+     *
+     * @param  length the number of digits
+     * @return        the random digits
+     */
+    private StringBuilder randomDigits(int length)
+    {
+        StringBuilder digits = new StringBuilder(length + 8);
+        digits.append((char) ('1' + random.nextInt(9)));
+        for (int i = 1; i < length; ++i) {
+            digits.append((char) ('0' + random.nextInt(10)));
+        }
+        return digits;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,125 @@
+package calculator.benchmarks;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * The {@code OperatorBenchmark} class measures the time to parse and evaluate
+ * the smallest expression using each default operator, for each notation.
+ * The cache of the calculator is disabled so that every evaluation parses its
+ * expression, as for the first evaluation of an expression.
+ * <p>
+ * JMH parameters must be listed in the source, so the operators are listed
+ * here rather than read from {@code AbstractCalculator}; setting up fails if
+ * the list falls out of step with the default operators.
+ *
+ * @author Kevin Zhu
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OperatorBenchmark
+{
+    /** The notation of the calculator. */
+    @Param({ "prefix", "infix", "postfix" })
+    public String notation;
+    
+    /** The symbol of the operator. */
+    @Param({ "%", "*", "+", "-", "/", "^", "!", "abs", "acos", "acot",
+             "acsc", "asec", "asin", "atan", "cos", "cosh", "cot", "csc",
+             "exp", "ln", "log10", "sec", "sin", "sinh", "sqrt", "tan",
+             "tanh", "~" })
+    public String operator;
+    
+    /** The calculator evaluating the expression. */
+    private ToDoubleFunction<String> calculator;
+    
+    /** The expression to evaluate. */
+    private String expression;
+    
+    /**
+     * Creates the calculator and the expression.
+     *
+     * @throws IllegalStateException if the listed operators are not the
+     *                               default operators
+     */
+    @Setup
+    public void setUp()
+    {
+        Set<String> listed;
+        try {
+            listed = new HashSet<>(Arrays.asList(OperatorBenchmark.class
+                    .getField("operator").getAnnotation(Param.class)
+                    .value()));
+        } catch (NoSuchFieldException e) {
+            throw new AssertionError(e); // the field is declared above
+        }
+        Set<String> defaults = new HashSet<>(Calculators.unaryOperators());
+        defaults.addAll(Calculators.binaryOperators());
+        if (!listed.equals(defaults)) {
+            throw new IllegalStateException("operators " + listed +
+                                            " are not the defaults " +
+                                            defaults);
+        }
+        calculator = Calculators.newCalculator(notation, 0);
+        expression = expression(notation, operator,
+                                Calculators.unaryOperators()
+                                           .contains(operator));
+    }
+    
+    /**
+     * Evaluates the expression.
+     *
+     * @return the value of the expression
+     */
+    @Benchmark
+    public double evaluate()
+    {
+        return calculator.applyAsDouble(expression);
+    }
+    
+    /**
+     * Returns the smallest expression applying the specified operator in the
+     * specified notation. Operands are in the domain of every default
+     * operator, so that no evaluation takes a shortcut on invalid input.
+     *
+     * @param  notation the notation of the expression
+     * @param  operator the symbol of the operator
+     * @param  unary    whether the operator is unary
+     * @return          the expression applying the operator
+     */
+    private static String expression(String notation, String operator,
+                                     boolean unary)
+    {
+        String a;
+        switch (operator) {
+            case "!":
+                a = "10";
+                break;
+            case "asec":
+            case "acsc":
+                a = "1.25";
+                break;
+            default:
+                a = "0.75";
+        }
+        String b = "1.25";
+        if (unary) {
+            return notation.equals("postfix") ?
+                   a + " " + operator : operator + " " + a;
+        }
+        switch (notation) {
+            case "prefix":
+                return operator + " " + a + " " + b;
+            case "infix":
+                return a + " " + operator + " " + b;
+            default:
+                return a + " " + b + " " + operator;
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,257 @@
+package calculator.benchmarks;
+
+import java.util.*;
+import java.util.function.*;
+
+/**
+ * The {@code SplitCheck} class checks that the infix calculator gives the
+ * same result for an expression whether or not its tokens are separated by
+ * whitespace. Without whitespace, the lexer splits tokens at operators, and
+ * whether a {@code "+"} or {@code "-"} is a sign or an operator depends on
+ * whether the parser expects an operand there, so the expressions checked
+ * have unary operators both before and after their operands, parentheses,
+ * and negative numbers. A few expressions whose values are known, such as
+ * {@code "3 ! - 1"}, are also checked against those values in both forms.
+ * <p>
+ * The first arguments, if given, are the number of random expressions and
+ * the seed of the random numbers. The exit status is 1 if any expression
+ * gives a different result.
+ *
+ * @author Kevin Zhu
+ */
+public final class SplitCheck
+{
+    /** The number of random expressions checked by default. */
+    private static final int DEFAULT_COUNT = 100_000;
+    
+    /** The number of mismatches reported before the rest are only counted. */
+    private static final int MAX_REPORTED = 20;
+    
+    /** The largest depth of operators in the random expressions. */
+    private static final int MAX_DEPTH = 5;
+    
+    /** The numbers used as operands, several of them negative. */
+    private static final String[] NUMBERS = {
+        "1", "2", "3", "0.5", "-1", "-2", "-0.25", "1e2", "-1e-2"
+    };
+    
+    /** Expressions with known values, with tokens separated by spaces. */
+    private static final Map<String, Double> KNOWN = Map.ofEntries(
+        Map.entry("3 ! + 1", 7.0),
+        Map.entry("3 ! - 1", 5.0),
+        Map.entry("3 ! ! - 1", 719.0),
+        Map.entry("3 ! * -1", -6.0),
+        Map.entry("3 ! - -1", 7.0),
+        Map.entry("( 3 ) ! + 1", 7.0),
+        Map.entry("( 3 ) + 1", 4.0),
+        Map.entry("( 3 ) - 1", 2.0),
+        Map.entry("( 3 ) + -1", 2.0),
+        Map.entry("( 1 + 2 ) - 3", 0.0),
+        Map.entry("2 - ( 3 ) !", -4.0),
+        Map.entry("1 - 2", -1.0),
+        Map.entry("2 * -3", -6.0),
+        Map.entry("-3 + 1", -2.0),
+        Map.entry("2 ^ -1", 0.5),
+        Map.entry("( -1 )", -1.0),
+        Map.entry("abs -2", 2.0),
+        Map.entry("abs ( -2 ) - 1", 1.0)
+    );
+    
+    /** The calculator evaluating expressions with whitespace. */
+    private final ToDoubleFunction<String> spaced;
+    
+    /** The calculator evaluating expressions without whitespace. */
+    private final ToDoubleFunction<String> stripped;
+    
+    /** The symbols of the unary operators. */
+    private final List<String> unaryOperators;
+    
+    /** The symbols of the binary operators. */
+    private final List<String> binaryOperators;
+    
+    /** The source of the random expressions. */
+    private final Random random;
+    
+    /** The number of expressions checked so far. */
+    private long checked;
+    
+    /** The number of expressions checked so far that have a value. */
+    private long valid;
+    
+    /** The number of expressions giving different results so far. */
+    private long mismatches;
+    
+    /**
+     * Constructs a {@code SplitCheck} object with new infix calculators,
+     * drawing random expressions from the specified seed.
+     *
+     * @param seed the seed of the random expressions
+     */
+    private SplitCheck(long seed)
+    {
+        spaced = Calculators.newCalculator("infix", 0);
+        stripped = Calculators.newCalculator("infix", 0);
+        unaryOperators = Calculators.unaryOperators();
+        binaryOperators = Calculators.binaryOperators();
+        random = new Random(seed);
+    }
+    
+    /**
+     * Checks the expressions, with the number of random expressions and the
+     * seed given by the specified arguments, if any.
+     *
+     * @param args the number of random expressions and the seed
+     */
+    public static void main(String[] args)
+    {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) :
+                    DEFAULT_COUNT;
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : 1L;
+        SplitCheck check = new SplitCheck(seed);
+        check.checkKnown();
+        for (int i = 0; i < count; ++i) {
+            StringBuilder expression = new StringBuilder();
+            check.appendRandom(MAX_DEPTH, expression);
+            check.check(expression.toString().trim());
+        }
+        System.out.println("checked " + check.checked + " expressions (" +
+                           check.valid + " with a value), " +
+                           check.mismatches + " evaluated differently");
+        if (check.mismatches > 0) {
+            System.exit(1);
+        }
+    }
+    
+    /**
+     * Checks that the expressions with known values evaluate to them, both
+     * with and without whitespace.
+     */
+    private void checkKnown()
+    {
+        for (Map.Entry<String, Double> entry : KNOWN.entrySet()) {
+            String expression = entry.getKey();
+            double expected = entry.getValue();
+            compare(expression, spaced.applyAsDouble(expression), expected);
+            String strip = strip(expression);
+            compare(strip, stripped.applyAsDouble(strip), expected);
+        }
+    }
+    
+    /**
+     * Checks that the specified expression, whose tokens are separated by
+     * single spaces, gives the same result without the spaces.
+     *
+     * @param expression the expression to check
+     */
+    private void check(String expression)
+    {
+        double expected = spaced.applyAsDouble(expression);
+        if (!Double.isNaN(expected)) {
+            ++valid;
+        }
+        String strip = strip(expression);
+        compare(strip, stripped.applyAsDouble(strip), expected);
+    }
+    
+    /**
+     * Counts the specified result of the specified expression as checked,
+     * reporting it if it differs from the expected result.
+     *
+     * @param expression the expression evaluated
+     * @param actual     the result of the expression
+     * @param expected   the expected result of the expression
+     */
+    private void compare(String expression, double actual, double expected)
+    {
+        ++checked;
+        if (Double.doubleToLongBits(actual) !=
+                Double.doubleToLongBits(expected)) {
+            if (++mismatches <= MAX_REPORTED) {
+                System.out.println(expression + ": evaluated to " + actual +
+                                   ", expected " + expected);
+            }
+        }
+    }
+    
+    /**
+     * Appends a random expression of at most the specified depth of
+     * operators to the specified expression, followed by a space. Unary
+     * operators go before or after their operands at random.
+     *
+     * @param depth      the largest depth of operators
+     * @param expression the expression to append to
+     */
+    private void appendRandom(int depth, StringBuilder expression)
+    {
+        int kind = depth == 0 ? 0 : random.nextInt(5);
+        switch (kind) {
+            case 0:
+                expression.append(NUMBERS[random.nextInt(NUMBERS.length)])
+                          .append(' ');
+                break;
+            case 1:
+                expression.append(randomOf(unaryOperators)).append(' ');
+                appendRandom(depth - 1, expression);
+                break;
+            case 2:
+                appendRandom(depth - 1, expression);
+                expression.append(randomOf(unaryOperators)).append(' ');
+                break;
+            case 3:
+                expression.append("( ");
+                appendRandom(depth - 1, expression);
+                expression.append(") ");
+                break;
+            default:
+                appendRandom(depth - 1, expression);
+                expression.append(randomOf(binaryOperators)).append(' ');
+                appendRandom(depth - 1, expression);
+                break;
+        }
+    }
+    
+    /**
+     * Returns a random element of the specified list.
+     *
+     * @param  list the list to choose from
+     * @return      a random element of the list
+     */
+    private String randomOf(List<String> list)
+    {
+        return list.get(random.nextInt(list.size()));
+    }
+    
+    /**
+     * Returns the specified expression without the spaces between its
+     * tokens, except those between two letters or digits, which would
+     * otherwise join two tokens into one.
+     *
+     * @param  expression the expression, with tokens separated by spaces
+     * @return            the expression without spaces between its tokens
+     */
+    private static String strip(String expression)
+    {
+        StringBuilder strip = new StringBuilder(expression.length());
+        for (int i = 0; i < expression.length(); ++i) {
+            char c = expression.charAt(i);
+            if (c != ' ' || isWord(expression.charAt(i - 1)) &&
+                    isWord(expression.charAt(i + 1))) {
+                strip.append(c);
+            }
+        }
+        return strip.toString();
+    }
+    
+    /**
+     * Returns {@code true} if the specified character can be part of a word
+     * or number; {@code false} otherwise.
+     *
+     * @param  c the character to check
+     * @return   {@code true} if the character can be part of a word or
+     *           number; {@code false} otherwise
+     */
+    private static boolean isWord(char c)
+    {
+        return Character.isLetterOrDigit(c) || c == '.' || c == '_';
+    }
+}
\ No newline at end of file